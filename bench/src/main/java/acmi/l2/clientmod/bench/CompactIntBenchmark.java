@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2014 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.bench;
+
+import acmi.l2.clientmod.io.BufferUtil;
+import acmi.l2.clientmod.io.ByteBufferDataInput;
+import acmi.l2.clientmod.io.DataInput;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compact int decoding and encoding, one operation is one value.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CompactIntBenchmark {
+    private static final int COUNT = 1 << 20;
+
+    private int[] values;
+    private ByteBuffer encoded;
+    private ByteBuffer target;
+
+    @Setup
+    public void setup() throws IOException {
+        values = SyntheticData.compactInts(COUNT, 1);
+        encoded = SyntheticData.compactIntBuffer(values);
+        target = ByteBuffer.allocate(encoded.capacity());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long decodeBuffer() {
+        ByteBuffer buffer = encoded.duplicate();
+        long sum = 0;
+        for (int i = 0; i < COUNT; i++)
+            sum += BufferUtil.getCompactInt(buffer);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long decodeDataInput() throws IOException {
+        DataInput input = new ByteBufferDataInput(encoded, null);
+        long sum = 0;
+        for (int i = 0; i < COUNT; i++)
+            sum += input.readCompactInt();
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int encode() {
+        target.clear();
+        for (int v : values)
+            BufferUtil.putCompactInt(target, v);
+        return target.position();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2014 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.bench;
+
+import acmi.l2.clientmod.crypt.CryptCodec;
+import acmi.l2.clientmod.crypt.CryptCodecs;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding throughput of each registered crypt version in MB/s, every version decodes {@link #MB} MB per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CryptBenchmark {
+    private static final String NAME = "Bench.u";
+    private static final int MB = 4;
+
+    @Param({"111", "120", "121", "211", "212", "411", "412", "413", "414"})
+    public int version;
+
+    private CryptCodec codec;
+    private ByteBuffer encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        codec = CryptCodecs.getCodec(version);
+        encoded = SyntheticData.encrypted(version, SyntheticData.bytes(MB << 20, version), NAME);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MB)
+    public int decode() throws IOException {
+        return codec.decode(encoded.duplicate(), NAME, true).remaining();
+    }
+}
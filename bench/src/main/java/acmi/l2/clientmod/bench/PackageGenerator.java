@@ -0,0 +1,516 @@
+/*
+ * Copyright (c) 2014 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.bench;
+
+import acmi.l2.clientmod.io.DataOutput;
+import acmi.l2.clientmod.io.DataOutputStream;
+import acmi.l2.clientmod.io.FileOutputStream;
+import acmi.l2.clientmod.io.UnrealPackageFile;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.*;
+
+import static acmi.l2.clientmod.io.ByteUtil.uuidToBytes;
+import static acmi.l2.clientmod.io.UnrealPackageReadOnly.PACKAGE_FLAGS;
+
+/**
+ * Writes valid packages of configurable size, readable by {@link UnrealPackageFile} and
+ * {@link acmi.l2.clientmod.unreal.classloader.UnrealClassLoader}.
+ * <p>
+ * Classes are chained by super class in trees of {@link #setClassDepth(int) classDepth}, each class has a struct
+ * with one property, a struct property, int properties and an object property referencing the class,
+ * default properties set the first int property.
+ * Package is written with licensee 0, so materials have no extra data.
+ * For class loading put Core and Engine packages written by a default generator in the same folder.
+ * Output depends on settings only.
+ */
+public class PackageGenerator {
+    public static final int VERSION = 123;
+
+    private int nameCount;
+    private int importCount;
+    private int objectCount;
+    private int classCount;
+    private int classDepth = 4;
+    private int propertiesPerClass = 4;
+    private int functionsPerClass;
+    private int scriptStatements = 16;
+    private int textBufferCount;
+    private int textSize = 1024;
+    private int textureCount;
+    private int textureSize = 256;
+    private int cryptVersion;
+    private Charset charset = Charset.forName("EUC-KR");
+    private long seed;
+
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> nameIndex = new HashMap<>();
+    private final List<int[]> imports = new ArrayList<>();
+    private final List<Export> exports = new ArrayList<>();
+
+    /**
+     * Name table is padded with unused names up to count.
+     */
+    public PackageGenerator setNameCount(int nameCount) {
+        this.nameCount = nameCount;
+        return this;
+    }
+
+    /**
+     * Import table is padded with unused Core class imports up to count.
+     */
+    public PackageGenerator setImportCount(int importCount) {
+        this.importCount = importCount;
+        return this;
+    }
+
+    /**
+     * Core.Object exports with empty property list.
+     */
+    public PackageGenerator setObjectCount(int objectCount) {
+        this.objectCount = objectCount;
+        return this;
+    }
+
+    public PackageGenerator setClassCount(int classCount) {
+        this.classCount = classCount;
+        return this;
+    }
+
+    public PackageGenerator setClassDepth(int classDepth) {
+        this.classDepth = Math.max(classDepth, 1);
+        return this;
+    }
+
+    /**
+     * Int properties per class, the last one is an object property.
+     */
+    public PackageGenerator setPropertiesPerClass(int propertiesPerClass) {
+        this.propertiesPerClass = Math.max(propertiesPerClass, 1);
+        return this;
+    }
+
+    /**
+     * Functions follow properties in class children, odd ones are replicated,
+     * the first one has native index 1000 + class number.
+     */
+    public PackageGenerator setFunctionsPerClass(int functionsPerClass) {
+        this.functionsPerClass = functionsPerClass;
+        return this;
+    }
+
+    /**
+     * Function script is statements referencing the first property of the class and a return.
+     */
+    public PackageGenerator setScriptStatements(int scriptStatements) {
+        this.scriptStatements = scriptStatements;
+        return this;
+    }
+
+    public PackageGenerator setTextBufferCount(int textBufferCount) {
+        this.textBufferCount = textBufferCount;
+        return this;
+    }
+
+    /**
+     * Text length in chars.
+     */
+    public PackageGenerator setTextSize(int textSize) {
+        this.textSize = textSize;
+        return this;
+    }
+
+    public PackageGenerator setTextureCount(int textureCount) {
+        this.textureCount = textureCount;
+        return this;
+    }
+
+    /**
+     * Width and height of the first mip, rounded up to a power of 2. Mips down to 1x1 follow, 1 byte per pixel.
+     */
+    public PackageGenerator setTextureSize(int textureSize) {
+        this.textureSize = Integer.highestOneBit(Math.max(textureSize, 1) * 2 - 1);
+        return this;
+    }
+
+    /**
+     * @param cryptVersion Lineage2VerXXX version, 0 for plain package
+     */
+    public PackageGenerator setCryptVersion(int cryptVersion) {
+        this.cryptVersion = cryptVersion;
+        return this;
+    }
+
+    public PackageGenerator setCharset(Charset charset) {
+        this.charset = Objects.requireNonNull(charset);
+        return this;
+    }
+
+    public PackageGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Package name is file name before the first dot, 121 XOR key depends on it too.
+     */
+    public void write(File file) throws IOException {
+        build();
+        try {
+            byte[] nameTable = nameTable();
+            byte[] importTable = importTable();
+
+            int nameOffset = UnrealPackageFile.GENERATIONS_OFFSET + 4 + 8;
+            int importOffset = nameOffset + nameTable.length;
+            int dataOffset = importOffset + importTable.length;
+
+            int[] offsets = new int[exports.size()];
+            int[] sizes = new int[exports.size()];
+            int offset = dataOffset;
+            for (int i = 0; i < exports.size(); i++) {
+                offsets[i] = offset;
+                sizes[i] = data(exports.get(i), offset).length;
+                offset += sizes[i];
+            }
+            int exportOffset = offset;
+
+            OutputStream os = new BufferedOutputStream(new java.io.FileOutputStream(file));
+            if (cryptVersion != 0)
+                os = new FileOutputStream(os, file.getName(), cryptVersion, false);
+            try (DataOutputStream output = new DataOutputStream(os, charset)) {
+                output.writeInt(UnrealPackageFile.UNREAL_PACKAGE_MAGIC);
+                output.writeShort(VERSION);
+                output.writeShort(0);
+                output.writeInt(0);
+                output.writeInt(names.size());
+                output.writeInt(nameOffset);
+                output.writeInt(exports.size());
+                output.writeInt(exportOffset);
+                output.writeInt(imports.size());
+                output.writeInt(importOffset);
+                output.write(uuidToBytes(new UUID(seed, exports.size())));
+                output.writeInt(1);
+                output.writeInt(exports.size());
+                output.writeInt(names.size());
+
+                output.write(nameTable);
+                output.write(importTable);
+                for (int i = 0; i < exports.size(); i++)
+                    output.write(data(exports.get(i), offsets[i]));
+
+                for (int i = 0; i < exports.size(); i++) {
+                    Export export = exports.get(i);
+                    output.writeCompactInt(export.objectClass);
+                    output.writeCompactInt(export.objectSuperClass);
+                    output.writeInt(export.objectPackage);
+                    output.writeCompactInt(export.objectName);
+                    output.writeInt(PACKAGE_FLAGS);
+                    output.writeCompactInt(sizes[i]);
+                    output.writeCompactInt(offsets[i]);
+                }
+            }
+        } finally {
+            names.clear();
+            nameIndex.clear();
+            imports.clear();
+            exports.clear();
+        }
+    }
+
+    private void build() {
+        name("None");
+        int core = importPackage("Core");
+        int engine = importPackage("Engine");
+        int objectClass = importClass(core, "Object");
+        int structClass = importClass(core, "Struct");
+        int intPropertyClass = importClass(core, "IntProperty");
+        int objectPropertyClass = importClass(core, "ObjectProperty");
+        int structPropertyClass = importClass(core, "StructProperty");
+        int functionClass = importClass(core, "Function");
+        int textBufferClass = importClass(core, "TextBuffer");
+        int textureClass = importClass(engine, "Texture");
+
+        int previousClass = 0;
+        for (int c = 0; c < classCount; c++) {
+            int superClass = c % classDepth == 0 ? 0 : previousClass;
+            int clazz = export(0, superClass, 0, "Class" + c, null);
+            previousClass = clazz;
+
+            int struct = export(structClass, 0, clazz, "Struct" + c, null);
+            int structName = exports.get(struct - 1).objectName;
+            int structField = export(intPropertyClass, 0, struct, "X", (out, offset) -> property(out, 0));
+
+            List<Integer> fields = new ArrayList<>();
+            fields.add(struct);
+            fields.add(export(structPropertyClass, 0, clazz, "StructProp", null));
+            for (int p = 0; p < propertiesPerClass; p++)
+                fields.add(export(p == propertiesPerClass - 1 ? objectPropertyClass : intPropertyClass, 0, clazz, "Prop" + p, null));
+            for (int f = 0; f < functionsPerClass; f++)
+                fields.add(export(functionClass, 0, clazz, "Function" + f, null));
+
+            for (int f = 0; f < fields.size(); f++) {
+                int next = f + 1 < fields.size() ? fields.get(f + 1) : 0;
+                Export field = exports.get(fields.get(f) - 1);
+                if (field.objectClass == structClass)
+                    field.data = (out, offset) -> {
+                        out.writeCompactInt(0);
+                        struct(out, 0, next, structField, structName);
+                    };
+                else if (field.objectClass == structPropertyClass)
+                    field.data = (out, offset) -> {
+                        property(out, next);
+                        out.writeCompactInt(struct);
+                    };
+                else if (field.objectClass == functionClass) {
+                    int nativeIndex = f == 2 + propertiesPerClass ? 1000 + c : 0;
+                    boolean net = (f - 2 - propertiesPerClass) % 2 == 1;
+                    int property = fields.get(2);
+                    field.data = (out, offset) -> {
+                        out.writeCompactInt(0);
+                        function(out, next, field.objectName, property, nativeIndex, net);
+                    };
+                } else if (field.objectClass == objectPropertyClass)
+                    field.data = (out, offset) -> {
+                        property(out, next);
+                        out.writeCompactInt(clazz);
+                    };
+                else
+                    field.data = (out, offset) -> property(out, next);
+            }
+
+            int className = exports.get(clazz - 1).objectName;
+            int propName = name("Prop0");
+            int index = c;
+            exports.get(clazz - 1).data = (out, offset) -> {
+                struct(out, superClass, 0, struct, className);
+                out.writeLong(0);
+                out.writeLong(0);
+                out.writeShort(-1);
+                out.writeInt(0);
+                out.writeInt(0);
+                out.write(uuidToBytes(new UUID(seed, index)));
+                out.writeCompactInt(0);
+                out.writeCompactInt(0);
+                out.writeCompactInt(0);
+                out.writeCompactInt(0);
+                out.writeCompactInt(0);
+                out.writeCompactInt(propName);
+                out.writeByte(0x22);
+                out.writeInt(index);
+                out.writeCompactInt(0);
+            };
+        }
+
+        for (int i = 0; i < textBufferCount; i++) {
+            long textSeed = seed + i;
+            export(textBufferClass, 0, 0, "Text" + i, (out, offset) -> {
+                out.writeCompactInt(0);
+                out.writeInt(0);
+                out.writeInt(0);
+                out.writeLine(text(new Random(textSeed)));
+            });
+        }
+
+        for (int i = 0; i < textureCount; i++) {
+            long textureSeed = seed + i;
+            export(textureClass, 0, 0, "Texture" + i, (out, offset) -> {
+                Random random = new Random(textureSeed);
+                out.writeCompactInt(0);
+                int bits = Integer.numberOfTrailingZeros(textureSize);
+                out.writeCompactInt(bits + 1);
+                for (int size = textureSize; size > 0; size >>= 1, bits--) {
+                    byte[] data = new byte[size * size];
+                    random.nextBytes(data);
+                    int len = compactIntSize(data.length);
+                    out.writeInt(offset + out.getPosition() + 4 + len + data.length);
+                    out.writeByteArray(data);
+                    out.writeInt(size);
+                    out.writeInt(size);
+                    out.writeByte(bits);
+                    out.writeByte(bits);
+                }
+            });
+        }
+
+        for (int i = 0; i < objectCount; i++)
+            export(objectClass, 0, 0, "Object" + i, (out, offset) -> out.writeCompactInt(0));
+
+        for (int i = imports.size(); i < importCount; i++)
+            importClass(core, "Import" + i);
+
+        for (int i = names.size(); i < nameCount; i++)
+            name("Name" + i);
+    }
+
+    private void property(DataOutput out, int next) throws IOException {
+        out.writeCompactInt(0);
+        out.writeCompactInt(0);
+        out.writeCompactInt(next);
+        out.writeShort(1);
+        out.writeShort(4);
+        out.writeInt(0x00000001);
+        out.writeCompactInt(0);
+    }
+
+    /**
+     * Field and struct data without script.
+     */
+    private void struct(DataOutput out, int superField, int next, int child, int friendlyName) throws IOException {
+        out.writeCompactInt(superField);
+        out.writeCompactInt(next);
+        out.writeCompactInt(0);
+        out.writeCompactInt(child);
+        out.writeCompactInt(friendlyName);
+        out.writeCompactInt(0);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(0);
+    }
+
+    private void function(DataOutput out, int next, int friendlyName, int property, int nativeIndex, boolean net) throws IOException {
+        ByteArrayOutputStream script = new ByteArrayOutputStream();
+        DataOutput scriptOutput = new DataOutputStream(script, charset);
+        for (int i = 0; i < scriptStatements; i++) {
+            scriptOutput.writeByte(0x01);
+            scriptOutput.writeCompactInt(property);
+        }
+        scriptOutput.writeByte(0x04);
+        scriptOutput.writeByte(0x0b);
+
+        out.writeCompactInt(0);
+        out.writeCompactInt(next);
+        out.writeCompactInt(0);
+        out.writeCompactInt(0);
+        out.writeCompactInt(friendlyName);
+        out.writeCompactInt(0);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(scriptStatements * 5 + 2);
+        out.write(script.toByteArray());
+        out.writeShort(nativeIndex);
+        out.writeByte(0);
+        out.writeInt(net ? 0x42 : 0x02);
+        if (net)
+            out.writeShort(0);
+    }
+
+    private String text(Random random) {
+        StringBuilder sb = new StringBuilder(textSize);
+        for (int i = 0; i < textSize; i++)
+            sb.append(random.nextInt(16) == 0 ? '\n' : (char) (' ' + random.nextInt(95)));
+        return sb.toString();
+    }
+
+    private int name(String name) {
+        return nameIndex.computeIfAbsent(name, n -> {
+            names.add(n);
+            return names.size() - 1;
+        });
+    }
+
+    /**
+     * @return object reference
+     */
+    private int importPackage(String name) {
+        imports.add(new int[]{name("Core"), name("Package"), 0, name(name)});
+        return -imports.size();
+    }
+
+    /**
+     * @return object reference
+     */
+    private int importClass(int pckg, String name) {
+        imports.add(new int[]{name("Core"), name("Class"), pckg, name(name)});
+        return -imports.size();
+    }
+
+    /**
+     * @return object reference
+     */
+    private int export(int objectClass, int objectSuperClass, int objectPackage, String name, Data data) {
+        exports.add(new Export(objectClass, objectSuperClass, objectPackage, name(name), data));
+        return exports.size();
+    }
+
+    private byte[] nameTable() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutput output = new DataOutputStream(baos, charset);
+        for (String name : names) {
+            output.writeLine(name);
+            output.writeInt(PACKAGE_FLAGS);
+        }
+        return baos.toByteArray();
+    }
+
+    private byte[] importTable() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutput output = new DataOutputStream(baos, charset);
+        for (int[] entry : imports) {
+            output.writeCompactInt(entry[0]);
+            output.writeCompactInt(entry[1]);
+            output.writeInt(entry[2]);
+            output.writeCompactInt(entry[3]);
+        }
+        return baos.toByteArray();
+    }
+
+    private byte[] data(Export export, int offset) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        export.data.write(new DataOutputStream(baos, charset), offset);
+        return baos.toByteArray();
+    }
+
+    private static int compactIntSize(int v) {
+        int size = 1;
+        for (v = Math.abs(v) >>> 6; v != 0; v >>>= 7)
+            size++;
+        return size;
+    }
+
+    private interface Data {
+        /**
+         * @param offset file offset of data
+         */
+        void write(DataOutput output, int offset) throws IOException;
+    }
+
+    private static final class Export {
+        final int objectClass;
+        final int objectSuperClass;
+        final int objectPackage;
+        final int objectName;
+        Data data;
+
+        Export(int objectClass, int objectSuperClass, int objectPackage, int objectName, Data data) {
+            this.objectClass = objectClass;
+            this.objectSuperClass = objectSuperClass;
+            this.objectPackage = objectPackage;
+            this.objectName = objectName;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2014 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.bench;
+
+import acmi.l2.clientmod.io.UnrealPackageFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opening of a read only package, name, import and export tables are read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PackageOpenBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int exports;
+
+    private File dir;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("l2io-bench").toFile();
+        file = new File(dir, "Bench" + exports + ".u");
+        SyntheticData.packageFile(file, exports);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public int open() throws IOException {
+        try (UnrealPackageFile up = new UnrealPackageFile(file, true)) {
+            return up.getExportTable().size();
+        }
+    }
+}
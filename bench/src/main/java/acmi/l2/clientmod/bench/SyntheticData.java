@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2014 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.bench;
+
+import acmi.l2.clientmod.crypt.CryptCodecs;
+import acmi.l2.clientmod.io.DataOutput;
+import acmi.l2.clientmod.io.DataOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Deterministic inputs for the benchmarks, nothing is read from client files.
+ */
+public final class SyntheticData {
+    public static final Charset EUC_KR = Charset.forName("EUC-KR");
+    public static final Charset UTF16LE = Charset.forName("utf-16le");
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Compact ints spread over 1 to 5 byte encodings, both signs.
+     */
+    public static int[] compactInts(int count, long seed) {
+        Random random = new Random(seed);
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            int bits = 6 + 7 * random.nextInt(4) + random.nextInt(7);
+            int v = random.nextInt(1 << Math.min(bits, 30));
+            values[i] = random.nextBoolean() ? v : -v;
+        }
+        return values;
+    }
+
+    public static ByteBuffer compactIntBuffer(int[] values) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(values.length * 3);
+        DataOutput output = new DataOutputStream(baos, null);
+        for (int v : values)
+            output.writeCompactInt(v);
+        return ByteBuffer.wrap(baos.toByteArray());
+    }
+
+    /**
+     * Serialized strings as in name tables: EUC-KR strings are stored as bytes, UTF-16LE as chars.
+     */
+    public static ByteBuffer strings(int count, Charset charset, long seed) throws IOException {
+        Random random = new Random(seed);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(count * 32);
+        DataOutput output = new DataOutputStream(baos, EUC_KR);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.setLength(0);
+            int len = 4 + random.nextInt(28);
+            for (int j = 0; j < len; j++)
+                sb.append(random.nextInt(4) == 0 ? (char) ('\uAC00' + random.nextInt(2350)) : (char) ('a' + random.nextInt(26)));
+            if (UTF16LE.equals(charset)) {
+                // length in chars as expected by DataInput.readLine
+                sb.append('\0');
+                output.writeCompactInt(-sb.length());
+                output.write(sb.toString().getBytes(UTF16LE));
+            } else
+                output.writeBytes(sb.toString());
+        }
+        return ByteBuffer.wrap(baos.toByteArray());
+    }
+
+    public static byte[] bytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Encrypted data with "Lineage2VerXXX" header skipped, 41x is encoded for l2encdec key.
+     */
+    public static ByteBuffer encrypted(int version, byte[] data, String name) throws IOException {
+        return CryptCodecs.getCodec(version).encode(ByteBuffer.wrap(data), name);
+    }
+
+    /**
+     * Writes package with exports of Core.Object class, each export data is an empty property list.
+     */
+    public static void packageFile(File file, int exportCount) throws IOException {
+        new PackageGenerator()
+                .setObjectCount(exportCount)
+                .write(file);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2014 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.bench;
+
+import acmi.l2.clientmod.crypt.xor.XorUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * XOR with a constant key (L2Ver111, L2Ver121) in MB/s: {@link XorUtil} on heap array (byte loop) and direct buffer
+ * (long-wide loop), and a long-wide loop over a heap buffer view for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class XorBenchmark {
+    private static final int MB = 4;
+    private static final int KEY = 0xACACACAC;
+
+    private byte[] heap;
+    private ByteBuffer heapView;
+    private ByteBuffer direct;
+
+    @Setup
+    public void setup() {
+        heap = SyntheticData.bytes(MB << 20, 0);
+        heapView = ByteBuffer.wrap(heap).order(ByteOrder.nativeOrder());
+        direct = ByteBuffer.allocateDirect(heap.length).order(ByteOrder.nativeOrder());
+        direct.put(heap).flip();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MB)
+    public byte[] heapBytes() {
+        XorUtil.xor(heap, 0, heap.length, KEY);
+        return heap;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MB)
+    public ByteBuffer direct() {
+        XorUtil.xor(direct, KEY);
+        return direct;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MB)
+    public ByteBuffer heapLongs() {
+        long key = (KEY & 0xffL) * 0x0101010101010101L;
+        ByteBuffer buffer = heapView;
+        for (int pos = 0, end = buffer.limit(); pos <= end - 8; pos += 8)
+            buffer.putLong(pos, buffer.getLong(pos) ^ key);
+        return buffer;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2014 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.bench;
+
+import acmi.l2.clientmod.crypt.CryptCodecs;
+import acmi.l2.clientmod.io.DataOutputStream;
+import acmi.l2.clientmod.io.FileOutputStream;
+import acmi.l2.clientmod.io.RandomAccessFile;
+import acmi.l2.clientmod.io.UnrealPackageFile;
+import acmi.l2.clientmod.io.UnrealPackageReadOnly;
+import acmi.l2.clientmod.unreal.classloader.FolderPackageLoader;
+import acmi.l2.clientmod.unreal.classloader.UnrealClassLoader;
+import acmi.l2.clientmod.unreal.core.Class;
+import acmi.l2.clientmod.unreal.core.Property;
+import acmi.l2.clientmod.unreal.core.TextBuffer;
+import acmi.l2.clientmod.unreal.objectfactory.ObjectFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static acmi.l2.clientmod.io.UnrealPackageReadOnly.PACKAGE_FLAGS;
+import static org.junit.Assert.*;
+
+/**
+ * Edit, commit, rollback, compaction and crypt round trips on generated packages. Packages are compared
+ * by their tables and object data, classes and objects are compared as read by {@link UnrealClassLoader}
+ * and {@link ObjectFactory}.
+ */
+public class PackageRoundTripTest {
+    private static final int CLASSES = 12;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private File synth;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = folder.newFolder("packages");
+        new PackageGenerator().write(new File(dir, "Core.u"));
+        new PackageGenerator().write(new File(dir, "Engine.u"));
+        synth = new File(dir, "Synth.u");
+        new PackageGenerator()
+                .setClassCount(CLASSES)
+                .setFunctionsPerClass(2)
+                .setObjectCount(20)
+                .setTextBufferCount(3)
+                .setTextureCount(2)
+                .setTextureSize(16)
+                .write(synth);
+    }
+
+    @Test
+    public void commitEdit() throws IOException {
+        List<String> edited;
+        try (UnrealPackageFile up = new UnrealPackageFile(synth, false)) {
+            up.beginEdit();
+            edit(up);
+            edited = snapshot(up);
+            up.commitEdit();
+            assertFalse(up.isEditing());
+            assertEquals(edited, snapshot(up));
+        }
+
+        assertEquals(edited, snapshot(synth, false));
+        assertEquals(edited, snapshot(synth, true));
+        assertTrue(edited.contains("name RoundTrip " + PACKAGE_FLAGS));
+        assertTrue(edited.contains("import Engine.RoundTripImport Core.Class"));
+        assertTrue(edited.stream().anyMatch(s -> s.startsWith("export Synth.RoundTripExport Core.Object ")));
+        assertEquals(objects(dir), objects(dir));
+    }
+
+    @Test
+    public void rollbackEdit() throws IOException {
+        byte[] bytes = Files.readAllBytes(synth.toPath());
+        List<String> original = snapshot(synth, false);
+
+        try (UnrealPackageFile up = new UnrealPackageFile(synth, false)) {
+            up.beginEdit();
+            edit(up);
+            assertNotEquals(original, snapshot(up));
+            up.rollbackEdit();
+            assertFalse(up.isEditing());
+            assertEquals(original, snapshot(up));
+        }
+
+        assertArrayEquals(bytes, Files.readAllBytes(synth.toPath()));
+    }
+
+    @Test
+    public void saveCompacted() throws IOException {
+        List<String> original = objects(dir);
+        try (UnrealPackageFile up = new UnrealPackageFile(synth, false)) {
+            up.beginEdit();
+            // grown text buffer is moved to the end, its old data is abandoned
+            text(up, "Text0", String.join("", Collections.nCopies(200, "grown ")));
+            up.commitEdit();
+        }
+        List<String> edited = snapshot(synth, false);
+
+        File compactedDir = folder.newFolder("compacted");
+        copy("Core.u", compactedDir);
+        copy("Engine.u", compactedDir);
+        File compacted = new File(compactedDir, synth.getName());
+        try (UnrealPackageFile up = new UnrealPackageFile(synth, true)) {
+            up.saveCompacted(compacted);
+        }
+
+        assertTrue(compacted.length() < synth.length());
+        assertEquals(edited, snapshot(compacted, false));
+        assertEquals(edited, snapshot(compacted, true));
+        List<String> objects = objects(compactedDir);
+        assertEquals(objects(dir), objects);
+        assertNotEquals(original, objects);
+    }
+
+    @Test
+    public void cryptVersions() throws IOException {
+        byte[] plain = Files.readAllBytes(synth.toPath());
+        List<String> original = snapshot(synth, false);
+
+        for (int version : CryptCodecs.getVersions()) {
+            File file = new File(folder.newFolder("crypt" + version), synth.getName());
+            try (OutputStream os = new FileOutputStream(new java.io.FileOutputStream(file), file.getName(), version, true)) {
+                os.write(plain);
+            }
+
+            // 41x is encoded with l2encdec key, other versions don't use the flag
+            ByteBuffer decoded = CryptCodecs.decode(file, true, true);
+            byte[] data = new byte[decoded.remaining()];
+            decoded.get(data);
+            assertTrue("version " + version, data.length >= plain.length && data.length < plain.length + 8);
+            assertArrayEquals("version " + version, plain, Arrays.copyOf(data, plain.length));
+            for (int i = plain.length; i < data.length; i++)
+                assertEquals("version " + version + " padding", 0, data[i]);
+
+            // XOR files are read in place
+            if (version == 111 || version == 121)
+                assertEquals("version " + version, original, snapshot(file, false));
+        }
+    }
+
+    private static void edit(UnrealPackageFile up) throws IOException {
+        up.addNameEntries(Collections.singletonMap("RoundTrip", PACKAGE_FLAGS));
+        up.addImportEntries(Collections.singletonMap("Engine.RoundTripImport", "Core.Class"), false);
+        up.addExportEntry("RoundTripExport", "Core.Object", null, new byte[]{(byte) up.nameReference("None")}, PACKAGE_FLAGS);
+        text(up, "Text1", "edited");
+        text(up, "Text2", String.join("", Collections.nCopies(100, "grown ")));
+    }
+
+    private static void text(UnrealPackageFile up, String name, String text) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(baos, up.getCharset());
+        output.writeCompactInt(up.nameReference("None"));
+        output.writeInt(0);
+        output.writeInt(0);
+        output.writeLine(text);
+        up.getExportTable().stream()
+                .filter(e -> e.getObjectInnerFullName().equals(name))
+                .findAny()
+                .orElseThrow(() -> new AssertionError(name + " not found"))
+                .setObjectRawData(baos.toByteArray());
+    }
+
+    private void copy(String name, File target) throws IOException {
+        Files.copy(new File(dir, name).toPath(), new File(target, name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static List<String> snapshot(File file, boolean mapped) throws IOException {
+        try (UnrealPackageFile up = new UnrealPackageFile(new RandomAccessFile(file, true, mapped))) {
+            return snapshot(up);
+        }
+    }
+
+    /**
+     * Header, tables and object data, without offsets.
+     */
+    private static List<String> snapshot(UnrealPackageFile up) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("header " + up.getVersion() + " " + up.getLicensee() + " " + up.getFlags() + " " + up.getUUID());
+        for (UnrealPackageReadOnly.NameEntry entry : up.getNameTable())
+            lines.add("name " + entry.getName() + " " + entry.getFlags());
+        for (UnrealPackageReadOnly.ImportEntry entry : up.getImportTable())
+            lines.add("import " + entry.getObjectFullName() + " " + entry.getFullClassName());
+        for (UnrealPackageFile.ExportEntry entry : up.getExportTable())
+            lines.add("export " + entry.getObjectFullName() + " " + fullName(entry.getObjectClass()) + " " +
+                    fullName(entry.getObjectSuperClass()) + " " + entry.getObjectFlags() + " " +
+                    Base64.getEncoder().encodeToString(entry.getObjectRawData()));
+        return lines;
+    }
+
+    private static String fullName(UnrealPackageReadOnly.Entry entry) {
+        return entry != null ? entry.getObjectFullName() : null;
+    }
+
+    /**
+     * Struct properties and default properties of classes, text buffers and objects of the Synth package.
+     */
+    private static List<String> objects(File dir) throws IOException {
+        UnrealClassLoader classLoader = new UnrealClassLoader(new FolderPackageLoader(dir), null);
+        List<String> lines = new ArrayList<>();
+        for (int c = 0; c < CLASSES; c++) {
+            String name = "Synth.Class" + c;
+            lines.add(name + " " + classLoader.getStructProperties(name).stream()
+                    .map(Property::toString)
+                    .collect(Collectors.toList()));
+            lines.add(name + " " + ((Class) classLoader.getStruct(name)).getProperties());
+        }
+
+        try (UnrealPackageFile up = new UnrealPackageFile(new File(dir, "Synth.u"), true)) {
+            ObjectFactory objectFactory = new ObjectFactory(classLoader);
+            for (acmi.l2.clientmod.unreal.core.Object object : objectFactory.applyAll(up, e -> e.getObjectClass() != null &&
+                    Arrays.asList("Core.Object", "Core.TextBuffer").contains(e.getObjectClass().getObjectFullName()))) {
+                lines.add(object + " " + object.getProperties() +
+                        (object instanceof TextBuffer ? " " + ((TextBuffer) object).getText() : ""));
+            }
+        }
+        return lines;
+    }
+}
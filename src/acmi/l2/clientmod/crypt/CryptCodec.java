@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2014 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt;
+
+import acmi.l2.clientmod.io.FinishableOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Lineage 2 file crypt, data after the 28 byte "Lineage2VerXXX" header.
+ *
+ * @see CryptCodecs
+ */
+public interface CryptCodec {
+    /**
+     * @param name     file name, some keys depend on it
+     * @param l2encdec use l2encdec key instead of original one (RSA)
+     */
+    InputStream decoder(InputStream input, String name, boolean l2encdec) throws IOException;
+
+    FinishableOutputStream encoder(OutputStream output, String name);
+
+    /**
+     * @param size exact count of bytes that will be written, encoder that needs the size ahead
+     *             (RSA) streams its output instead of buffering it
+     */
+    default FinishableOutputStream encoder(OutputStream output, String name, int size) throws IOException {
+        return encoder(output, name);
+    }
+
+    /**
+     * Decodes remaining bytes of src into a new buffer (direct if src is direct).
+     * src position is not changed.
+     * <p>
+     * Data is read straight into the result array, it's not copied again when decoder's
+     * {@link InputStream#available()} is the exact size. That size comes from the file, so
+     * preallocation is limited to 8 times src size.
+     */
+    default ByteBuffer decode(ByteBuffer src, String name, boolean l2encdec) throws IOException {
+        try (InputStream input = decoder(CryptCodecs.inputStream(src), name, l2encdec)) {
+            long limit = Math.max(8192L, src.remaining() * 8L);
+            byte[] data = new byte[(int) Math.min(Math.max(input.available(), 1), Math.min(limit, Integer.MAX_VALUE - 8))];
+            int length = 0;
+            while (true) {
+                int r = input.read(data, length, data.length - length);
+                if (r < 0)
+                    break;
+                length += r;
+
+                if (length == data.length) {
+                    int b = input.read();
+                    if (b < 0)
+                        break;
+                    if (length == Integer.MAX_VALUE - 8)
+                        throw new EOFException("Decoded data is too large");
+                    data = Arrays.copyOf(data, (int) Math.min(length + Math.max(length >> 1, 8192L), Integer.MAX_VALUE - 8));
+                    data[length++] = (byte) b;
+                }
+            }
+
+            if (src.isDirect())
+                return CryptCodecs.copy(ByteBuffer.wrap(data, 0, length), true);
+            return ByteBuffer.wrap(length == data.length ? data : Arrays.copyOf(data, length));
+        }
+    }
+
+    /**
+     * Encodes remaining bytes of src into a new buffer (direct if src is direct).
+     * src position is not changed.
+     */
+    default ByteBuffer encode(ByteBuffer src, String name) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(src.remaining() + 1024);
+        try (FinishableOutputStream output = encoder(baos, name)) {
+            ByteBuffer data = src.duplicate();
+            byte[] buf = new byte[8192];
+            while (data.hasRemaining()) {
+                int n = Math.min(buf.length, data.remaining());
+                data.get(buf, 0, n);
+                output.write(buf, 0, n);
+            }
+        }
+        return CryptCodecs.copy(ByteBuffer.wrap(baos.toByteArray()), src.isDirect());
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2014 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt;
+
+import acmi.l2.clientmod.crypt.blowfish.L2Ver21xCodec;
+import acmi.l2.clientmod.crypt.rsa.L2Ver41xCodec;
+import acmi.l2.clientmod.crypt.xor.L2Ver120Codec;
+import acmi.l2.clientmod.crypt.xor.L2Ver1x1Codec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static acmi.l2.clientmod.crypt.blowfish.L2Ver21x.BLOWFISH_KEY_211;
+import static acmi.l2.clientmod.crypt.blowfish.L2Ver21x.BLOWFISH_KEY_212;
+import static acmi.l2.clientmod.crypt.rsa.L2Ver41x.*;
+
+/**
+ * Registry of {@link CryptCodec}s by version.
+ */
+public final class CryptCodecs {
+    public static final int HEADER_SIZE = 28;
+    public static final int TAIL_SIZE = 20;
+
+    private static final Map<Integer, CryptCodec> codecs = new ConcurrentHashMap<>();
+
+    static {
+        register(111, new L2Ver1x1Codec(111));
+        register(120, new L2Ver120Codec());
+        register(121, new L2Ver1x1Codec(121));
+        register(211, new L2Ver21xCodec(BLOWFISH_KEY_211));
+        register(212, new L2Ver21xCodec(BLOWFISH_KEY_212));
+        register(411, new L2Ver41xCodec(MODULUS_411, PRIVATE_EXPONENT_411));
+        register(412, new L2Ver41xCodec(MODULUS_412, PRIVATE_EXPONENT_412));
+        register(413, new L2Ver41xCodec(MODULUS_413, PRIVATE_EXPONENT_413));
+        register(414, new L2Ver41xCodec(MODULUS_414, PRIVATE_EXPONENT_414));
+    }
+
+    private CryptCodecs() {
+    }
+
+    /**
+     * Replaces codec previously registered for version.
+     */
+    public static void register(int version, CryptCodec codec) {
+        codecs.put(version, Objects.requireNonNull(codec, "codec"));
+    }
+
+    public static Set<Integer> getVersions() {
+        return new TreeSet<>(codecs.keySet());
+    }
+
+    public static CryptCodec getCodec(int version) {
+        CryptCodec codec = codecs.get(version);
+        if (codec == null)
+            throw new RuntimeException("Unsupported version: " + version);
+        return codec;
+    }
+
+    /**
+     * Reads and checks "Lineage2VerXXX" header, position is moved after it.
+     */
+    public static int readVersion(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE)
+            throw new IOException("Not a Lineage 2 file");
+
+        byte[] header = new byte[HEADER_SIZE];
+        buffer.get(header);
+        String headerStr = new String(header, Charset.forName("utf-16le"));
+        if (!headerStr.matches("Lineage2Ver\\d{3}"))
+            throw new IOException("Not a Lineage 2 file");
+
+        return Integer.valueOf(headerStr.substring(11));
+    }
+
+    /**
+     * Maps file that has no tail and decodes it in one pass. Result is a direct buffer.
+     */
+    public static ByteBuffer decode(File file, boolean l2encdec) throws IOException {
+        return decode(file, l2encdec, false);
+    }
+
+    /**
+     * Maps file and decodes it in one pass. Result is a direct buffer.
+     *
+     * @param tail file has {@link #TAIL_SIZE} byte tail after encrypted data, it's not decoded
+     */
+    public static ByteBuffer decode(File file, boolean l2encdec, boolean tail) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int version = readVersion(mapped);
+            if (tail) {
+                if (mapped.remaining() < TAIL_SIZE)
+                    throw new IOException("File is too short");
+                mapped.limit(mapped.limit() - TAIL_SIZE);
+            }
+            return getCodec(version).decode(mapped, file.getName(), l2encdec);
+        }
+    }
+
+    /**
+     * Copy of remaining bytes of src, position of src is not changed.
+     */
+    public static ByteBuffer copy(ByteBuffer src, boolean direct) {
+        ByteBuffer dst = direct ? ByteBuffer.allocateDirect(src.remaining()) : ByteBuffer.allocate(src.remaining());
+        dst.put(src.duplicate());
+        dst.flip();
+        return dst;
+    }
+
+    static InputStream inputStream(ByteBuffer src) {
+        ByteBuffer buffer = src.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0)
+                    return 0;
+                if (!buffer.hasRemaining())
+                    return -1;
+
+                int n = Math.min(len, buffer.remaining());
+                buffer.get(b, off, n);
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return buffer.remaining();
+            }
+        };
+    }
+}
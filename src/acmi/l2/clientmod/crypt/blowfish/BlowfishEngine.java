@@ -22,6 +22,9 @@
 package acmi.l2.clientmod.crypt.blowfish;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 public class BlowfishEngine {
     private final static int[] KP = {0x243F6A88, 0x85A308D3, 0x13198A2E, 0x03707344, 0xA4093822,
@@ -243,17 +246,20 @@ public class BlowfishEngine {
     private static final int BLOCK_SIZE = 8; // bytes = 64 bits
     private static final int SBOX_SK = 256;
     private static final int P_SZ = ROUNDS + 2;
-    private final int[] S0, S1, S2, S3; // the s-boxes
-    private final int[] P; // the p-array
+    /**
+     * Precomputed schedules of the client keys. Arrays are shared by engines and never modified.
+     */
+    private static final byte[] KEY_211 = L2Ver21x.BLOWFISH_KEY_211.clone();
+    private static final byte[] KEY_212 = L2Ver21x.BLOWFISH_KEY_212.clone();
+    private static final int[][] SCHEDULE_211 = schedule(KEY_211);
+    private static final int[][] SCHEDULE_212 = schedule(KEY_212);
+
+    private int[] S0, S1, S2, S3; // the s-boxes
+    private int[] P; // the p-array
     private boolean encrypting = false;
     private byte[] workingKey = null;
 
     public BlowfishEngine() {
-        S0 = new int[SBOX_SK];
-        S1 = new int[SBOX_SK];
-        S2 = new int[SBOX_SK];
-        S3 = new int[SBOX_SK];
-        P = new int[P_SZ];
     }
 
     /**
@@ -266,7 +272,30 @@ public class BlowfishEngine {
     public void init(boolean encryption, byte[] key) {
         encrypting = encryption;
         workingKey = key;
-        setKey(workingKey);
+
+        int[][] schedule;
+        if (Arrays.equals(key, KEY_211))
+            schedule = SCHEDULE_211;
+        else if (Arrays.equals(key, KEY_212))
+            schedule = SCHEDULE_212;
+        else
+            schedule = schedule(key);
+        S0 = schedule[0];
+        S1 = schedule[1];
+        S2 = schedule[2];
+        S3 = schedule[3];
+        P = schedule[4];
+    }
+
+    private static int[][] schedule(byte[] key) {
+        BlowfishEngine engine = new BlowfishEngine();
+        engine.S0 = new int[SBOX_SK];
+        engine.S1 = new int[SBOX_SK];
+        engine.S2 = new int[SBOX_SK];
+        engine.S3 = new int[SBOX_SK];
+        engine.P = new int[P_SZ];
+        engine.setKey(key);
+        return new int[][]{engine.S0, engine.S1, engine.S2, engine.S3, engine.P};
     }
 
     public final int processBlock(byte[] in, int inOff, byte[] out, int outOff) throws IOException {
@@ -287,6 +316,55 @@ public class BlowfishEngine {
         return BLOCK_SIZE;
     }
 
+    /**
+     * ECB mode: processes count blocks, in and out may be the same array.
+     */
+    public final void processBlocks(byte[] in, int inOff, byte[] out, int outOff, int count) {
+        if (workingKey == null) {
+            throw new IllegalStateException("Blowfish not initialised");
+        }
+        int len = count * BLOCK_SIZE;
+        if (count < 0 || inOff < 0 || outOff < 0 || inOff + len > in.length || outOff + len > out.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (encrypting) {
+            for (int i = 0; i < len; i += BLOCK_SIZE)
+                encryptBlock(in, inOff + i, out, outOff + i);
+        } else {
+            for (int i = 0; i < len; i += BLOCK_SIZE)
+                decryptBlock(in, inOff + i, out, outOff + i);
+        }
+    }
+
+    /**
+     * ECB mode: processes whole blocks remaining in both buffers, their positions are moved.
+     * Direct buffers are read and written with little-endian int views.
+     */
+    public final void processBlocks(ByteBuffer in, ByteBuffer out) {
+        if (workingKey == null) {
+            throw new IllegalStateException("Blowfish not initialised");
+        }
+        int count = Math.min(in.remaining(), out.remaining()) / BLOCK_SIZE;
+        int len = count * BLOCK_SIZE;
+
+        if (in.hasArray() && out.hasArray() && !out.isReadOnly()) {
+            processBlocks(in.array(), in.arrayOffset() + in.position(), out.array(), out.arrayOffset() + out.position(), count);
+        } else {
+            ByteBuffer src = in.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer dst = out.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0, inPos = in.position(), outPos = out.position(); i < len; i += BLOCK_SIZE) {
+                long block = encrypting ?
+                        encrypt(src.getInt(inPos + i), src.getInt(inPos + i + 4)) :
+                        decrypt(src.getInt(inPos + i), src.getInt(inPos + i + 4));
+                dst.putInt(outPos + i, (int) block);
+                dst.putInt(outPos + i + 4, (int) (block >>> 32));
+            }
+        }
+
+        in.position(in.position() + len);
+        out.position(out.position() + len);
+    }
+
     //==================================
     // Private Implementation
     //==================================
@@ -377,16 +455,23 @@ public class BlowfishEngine {
      * will be an exact multiple of our blocksize.
      */
     private void encryptBlock(byte[] src, int srcIndex, byte[] dst, int dstIndex) {
-        int xl = bytesTo32bits(src, srcIndex);
-        int xr = bytesTo32bits(src, srcIndex + 4);
+        long block = encrypt(bytesTo32bits(src, srcIndex), bytesTo32bits(src, srcIndex + 4));
+        bits32ToBytes((int) block, dst, dstIndex);
+        bits32ToBytes((int) (block >>> 32), dst, dstIndex + 4);
+    }
+
+    /**
+     * @return xr in low and xl in high 32 bits
+     */
+    private long encrypt(int xl, int xr) {
+        int[] P = this.P;
         xl ^= P[0];
         for (int i = 1; i < ROUNDS; i += 2) {
             xr ^= func(xl) ^ P[i];
             xl ^= func(xr) ^ P[i + 1];
         }
         xr ^= P[ROUNDS + 1];
-        bits32ToBytes(xr, dst, dstIndex);
-        bits32ToBytes(xl, dst, dstIndex + 4);
+        return (xr & 0xffffffffL) | ((long) xl << 32);
     }
 
     /**
@@ -395,16 +480,23 @@ public class BlowfishEngine {
      * will be an exact multiple of our blocksize.
      */
     private void decryptBlock(byte[] src, int srcIndex, byte[] dst, int dstIndex) {
-        int xl = bytesTo32bits(src, srcIndex);
-        int xr = bytesTo32bits(src, srcIndex + 4);
+        long block = decrypt(bytesTo32bits(src, srcIndex), bytesTo32bits(src, srcIndex + 4));
+        bits32ToBytes((int) block, dst, dstIndex);
+        bits32ToBytes((int) (block >>> 32), dst, dstIndex + 4);
+    }
+
+    /**
+     * @return xr in low and xl in high 32 bits
+     */
+    private long decrypt(int xl, int xr) {
+        int[] P = this.P;
         xl ^= P[ROUNDS + 1];
         for (int i = ROUNDS; i > 0; i -= 2) {
             xr ^= func(xl) ^ P[i];
             xl ^= func(xr) ^ P[i - 1];
         }
         xr ^= P[0];
-        bits32ToBytes(xr, dst, dstIndex);
-        bits32ToBytes(xl, dst, dstIndex + 4);
+        return (xr & 0xffffffffL) | ((long) xl << 32);
     }
 
     private int bytesTo32bits(byte[] b, int i) {
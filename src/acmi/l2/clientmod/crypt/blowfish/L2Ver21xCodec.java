@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2014 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.blowfish;
+
+import acmi.l2.clientmod.crypt.CryptCodec;
+import acmi.l2.clientmod.io.FinishableOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+public final class L2Ver21xCodec implements CryptCodec, L2Ver21x {
+    private static final int BLOCK_SIZE = 8;
+
+    private final byte[] key;
+
+    public L2Ver21xCodec(byte[] key) {
+        this.key = Objects.requireNonNull(key, "key").clone();
+    }
+
+    @Override
+    public InputStream decoder(InputStream input, String name, boolean l2encdec) {
+        return new L2Ver21xInputStream(input, key);
+    }
+
+    @Override
+    public FinishableOutputStream encoder(OutputStream output, String name) {
+        return new L2Ver21xOutputStream(output, key);
+    }
+
+    /**
+     * Decodes whole blocks, bytes after the last whole block are ignored.
+     */
+    @Override
+    public ByteBuffer decode(ByteBuffer src, String name, boolean l2encdec) throws IOException {
+        return process(false, src, src.remaining() & -BLOCK_SIZE);
+    }
+
+    /**
+     * Last block is padded with zeros.
+     */
+    @Override
+    public ByteBuffer encode(ByteBuffer src, String name) throws IOException {
+        return process(true, src, (src.remaining() + BLOCK_SIZE - 1) & -BLOCK_SIZE);
+    }
+
+    private ByteBuffer process(boolean encrypt, ByteBuffer src, int size) throws IOException {
+        BlowfishEngine blowfish = new BlowfishEngine();
+        blowfish.init(encrypt, key);
+
+        ByteBuffer input = src.duplicate();
+        ByteBuffer output = src.isDirect() ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        blowfish.processBlocks(input, output);
+        if (output.hasRemaining()) {
+            byte[] last = new byte[BLOCK_SIZE];
+            input.get(last, 0, input.remaining());
+            blowfish.processBlock(last, 0, last, 0);
+            output.put(last);
+        }
+        output.flip();
+        return output;
+    }
+}
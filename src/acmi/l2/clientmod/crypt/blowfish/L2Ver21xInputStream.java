@@ -21,38 +21,105 @@
  */
 package acmi.l2.clientmod.crypt.blowfish;
 
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.Objects;
 
 public final class L2Ver21xInputStream extends InputStream implements L2Ver21x {
-    private DataInputStream in;
+    private static final int BLOCK_SIZE = 8;
+
+    private InputStream in;
     private BlowfishEngine blowfish = new BlowfishEngine();
 
-    private byte[] readBuffer = new byte[8];
-    private ByteBuffer dataBuffer = ByteBuffer.allocate(8);
+    /**
+     * Encrypted bytes, readBufferLength is always less than {@link #BLOCK_SIZE} between calls.
+     */
+    private byte[] readBuffer = new byte[8192];
+    private int readBufferLength;
+    private ByteBuffer dataBuffer = ByteBuffer.allocate(BLOCK_SIZE);
 
     {
         dataBuffer.position(dataBuffer.limit());
     }
 
     public L2Ver21xInputStream(InputStream input, byte[] key) {
-        in = new DataInputStream(Objects.requireNonNull(input, "stream"));
+        in = Objects.requireNonNull(input, "stream");
         blowfish.init(false, Objects.requireNonNull(key, "key"));
     }
 
     @Override
     public int read() throws IOException {
-        if (dataBuffer.position() == dataBuffer.limit()) {
-            in.readFully(readBuffer);
+        if (!dataBuffer.hasRemaining()) {
+            if (readBlocks(BLOCK_SIZE) == 0)
+                throw new EOFException();
+
             dataBuffer.clear();
             blowfish.processBlock(readBuffer, 0, dataBuffer.array(), dataBuffer.arrayOffset());
+            consume(BLOCK_SIZE);
         }
         return dataBuffer.get() & 0xff;
     }
 
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+
+        int n = Math.min(len, dataBuffer.remaining());
+        dataBuffer.get(b, off, n);
+
+        while (len - n >= BLOCK_SIZE) {
+            int count = readBlocks(Math.min(len - n, readBuffer.length) & -BLOCK_SIZE);
+            if (count == 0)
+                return n == 0 ? -1 : n;
+
+            blowfish.processBlocks(readBuffer, 0, b, off + n, count / BLOCK_SIZE);
+            consume(count);
+            n += count;
+        }
+
+        if (n < len) {
+            if (readBlocks(BLOCK_SIZE) == 0)
+                return n == 0 ? -1 : n;
+
+            dataBuffer.clear();
+            blowfish.processBlock(readBuffer, 0, dataBuffer.array(), dataBuffer.arrayOffset());
+            consume(BLOCK_SIZE);
+
+            dataBuffer.get(b, off + n, len - n);
+            n = len;
+        }
+
+        return n;
+    }
+
+    /**
+     * Reads up to max bytes into readBuffer until it holds at least one block.
+     *
+     * @return length of whole blocks in readBuffer, 0 at the end of stream
+     */
+    private int readBlocks(int max) throws IOException {
+        while (readBufferLength < BLOCK_SIZE) {
+            int r = in.read(readBuffer, readBufferLength, max - readBufferLength);
+            if (r < 0) {
+                if (readBufferLength == 0)
+                    return 0;
+                throw new EOFException();
+            }
+            readBufferLength += r;
+        }
+        return readBufferLength & -BLOCK_SIZE;
+    }
+
+    private void consume(int count) {
+        readBufferLength -= count;
+        System.arraycopy(readBuffer, count, readBuffer, 0, readBufferLength);
+    }
+
     @Override
     public int available() throws IOException {
         return dataBuffer.limit() - dataBuffer.position();
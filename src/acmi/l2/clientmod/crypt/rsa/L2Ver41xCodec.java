@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2014 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.rsa;
+
+import acmi.l2.clientmod.crypt.CryptCodec;
+import acmi.l2.clientmod.crypt.CryptCodecs;
+import acmi.l2.clientmod.io.FinishableOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Files are always encoded with l2encdec key, original private keys are unknown.
+ */
+public final class L2Ver41xCodec implements CryptCodec, L2Ver41x {
+    private final BigInteger modulus;
+    private final BigInteger privateExponent;
+
+    public L2Ver41xCodec(BigInteger modulus, BigInteger privateExponent) {
+        this.modulus = Objects.requireNonNull(modulus, "modulus");
+        this.privateExponent = Objects.requireNonNull(privateExponent, "privateExponent");
+    }
+
+    @Override
+    public InputStream decoder(InputStream input, String name, boolean l2encdec) throws IOException {
+        return new L2Ver41xInputStream(input,
+                l2encdec ? MODULUS_L2ENCDEC : modulus,
+                l2encdec ? PRIVATE_EXPONENT_L2ENCDEC : privateExponent);
+    }
+
+    @Override
+    public FinishableOutputStream encoder(OutputStream output, String name) {
+        return new L2Ver41xOutputStream(output, MODULUS_L2ENCDEC, PUBLIC_EXPONENT_L2ENCDEC);
+    }
+
+    @Override
+    public FinishableOutputStream encoder(OutputStream output, String name, int size) throws IOException {
+        return new L2Ver41xOutputStream(output, MODULUS_L2ENCDEC, PUBLIC_EXPONENT_L2ENCDEC, size);
+    }
+
+    @Override
+    public ByteBuffer encode(ByteBuffer src, String name) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(src.remaining() / 2 + 1024);
+        try (L2Ver41xOutputStream output = new L2Ver41xOutputStream(baos, MODULUS_L2ENCDEC, PUBLIC_EXPONENT_L2ENCDEC, src.remaining())) {
+            ByteBuffer data = src.duplicate();
+            byte[] buf = new byte[8192];
+            while (data.hasRemaining()) {
+                int n = Math.min(buf.length, data.remaining());
+                data.get(buf, 0, n);
+                output.write(buf, 0, n);
+            }
+        }
+        return CryptCodecs.copy(ByteBuffer.wrap(baos.toByteArray()), src.isDirect());
+    }
+}
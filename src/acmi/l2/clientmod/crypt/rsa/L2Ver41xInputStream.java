@@ -21,52 +21,161 @@
  */
 package acmi.l2.clientmod.crypt.rsa;
 
-import acmi.l2.clientmod.io.DataInputStream;
-
 import javax.crypto.Cipher;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.math.BigInteger;
-import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
+import java.security.PrivateKey;
 import java.security.spec.RSAPrivateKeySpec;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.zip.InflaterInputStream;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
+/**
+ * Decrypts RSA blocks by chunks and feeds their data to {@link Inflater} directly.
+ * With a pool blocks of a chunk are decrypted in parallel, each task takes a {@link Cipher} from a pool
+ * owned by the stream, the pool is cleared on close.
+ */
 public final class L2Ver41xInputStream extends InputStream implements L2Ver41x {
-    private InputStream stream;
+    private static final boolean parallel = Boolean.getBoolean(L2Ver41xInputStream.class.getName() + ".parallel");
+
+    private static final int BLOCK_SIZE = 128;
+    private static final int BLOCKS_PER_CHUNK = 64;
+    private static final int MAX_BLOCKS_PER_CHUNK = 1024;
+
+    private final InputStream input;
+    private final ForkJoinPool pool;
+    private final PrivateKey key;
+    private final Queue<Cipher> ciphers = new ConcurrentLinkedQueue<>();
+    private final Inflater inflater = new Inflater();
     private boolean closed;
 
+    private final byte[] readBuffer;
+    private int readPos;
+    private int readLength;
+
+    private final byte[] decrypted;
+    private final byte[] dataBuffer;
+    private int dataLength;
+
+    private byte[] singleByte;
+    private byte[] skipBuffer;
+
     private int size;
     private int got;
 
+    /**
+     * Decrypts blocks in {@link ForkJoinPool#commonPool()} if system property
+     * {@code acmi.l2.clientmod.crypt.rsa.L2Ver41xInputStream.parallel} is true.
+     */
     public L2Ver41xInputStream(InputStream input, BigInteger modulus, BigInteger exponent) throws IOException {
-        RSAInputStream rsaInputStream = new RSAInputStream(Objects.requireNonNull(input, "stream"), Objects.requireNonNull(modulus, "modulus"), Objects.requireNonNull(exponent, "exponent"));
+        this(input, modulus, exponent, parallel ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * @param pool pool for block decryption, null to decrypt in the reading thread
+     */
+    public L2Ver41xInputStream(InputStream input, BigInteger modulus, BigInteger exponent, ForkJoinPool pool) throws IOException {
+        this.input = Objects.requireNonNull(input, "stream");
+        this.pool = pool;
 
-        DataInputStream dataInputStream = new DataInputStream(rsaInputStream, null);
-        size = dataInputStream.readInt();
+        key = createKey(new RSAPrivateKeySpec(Objects.requireNonNull(modulus, "modulus"), Objects.requireNonNull(exponent, "exponent")));
+        ciphers.add(createCipher(key));
 
-        stream = new InflaterInputStream(rsaInputStream);
+        int blocks = pool == null ? BLOCKS_PER_CHUNK : Math.min(BLOCKS_PER_CHUNK * pool.getParallelism(), MAX_BLOCKS_PER_CHUNK);
+        readBuffer = new byte[BLOCK_SIZE * blocks];
+        decrypted = new byte[BLOCK_SIZE * blocks];
+        dataBuffer = new byte[(BLOCK_SIZE - 4) * blocks];
+
+        int pos = 0;
+        for (int i = 0; i < 4; i++) {
+            while (pos == dataLength) {
+                if (!fill())
+                    throw new EOFException();
+                pos = 0;
+            }
+            size |= (dataBuffer[pos++] & 0xff) << (i * 8);
+        }
+        inflater.setInput(dataBuffer, pos, dataLength - pos);
     }
 
     @Override
     public int read() throws IOException {
+        if (singleByte == null)
+            singleByte = new byte[1];
+
+        return read(singleByte, 0, 1) == 1 ? singleByte[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
         if (closed)
             throw new IOException("Stream closed");
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+
+        try {
+            int n;
+            while ((n = inflater.inflate(b, off, len)) == 0) {
+                if (inflater.finished() || inflater.needsDictionary())
+                    return -1;
+                if (inflater.needsInput()) {
+                    if (!fill())
+                        throw new EOFException("Unexpected end of ZLIB input stream");
+                    inflater.setInput(dataBuffer, 0, dataLength);
+                }
+            }
+            got += n;
+            return n;
+        } catch (DataFormatException e) {
+            String s = e.getMessage();
+            throw new ZipException(s != null ? s : "Invalid ZLIB data format");
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0)
+            return 0;
 
-        int b = stream.read();
-        if (got < size) got++;
+        if (skipBuffer == null)
+            skipBuffer = new byte[4096];
 
-        return b;
+        long remaining = Math.min(n, available());
+        long skipped = 0;
+        while (skipped < remaining) {
+            int r = read(skipBuffer, 0, (int) Math.min(remaining - skipped, skipBuffer.length));
+            if (r < 0)
+                break;
+            skipped += r;
+        }
+        return skipped;
     }
 
+    /**
+     * Declared uncompressed size minus bytes already read.
+     */
     @Override
     public int available() throws IOException {
         if (closed)
             throw new IOException("Stream closed");
 
-        return size - got;
+        return Math.max(size - got, 0);
     }
 
     @Override
@@ -75,74 +184,120 @@ public final class L2Ver41xInputStream extends InputStream implements L2Ver41x {
             return;
 
         closed = true;
+        inflater.end();
+        ciphers.clear();
     }
 
-    private static class RSAInputStream extends InputStream {
-        private InputStream input;
+    /**
+     * Decrypts whole blocks available in the chunk into dataBuffer.
+     * Block with broken data size is kept for the next call, so it fails only if its data is needed.
+     *
+     * @return false at the end of stream
+     */
+    private boolean fill() throws IOException {
+        if (readLength - readPos < BLOCK_SIZE) {
+            System.arraycopy(readBuffer, readPos, readBuffer, 0, readLength - readPos);
+            readLength -= readPos;
+            readPos = 0;
+            int min = pool == null ? BLOCK_SIZE : readBuffer.length;
+            while (readLength < min) {
+                int r = input.read(readBuffer, readLength, readBuffer.length - readLength);
+                if (r < 0) {
+                    if (readLength < BLOCK_SIZE)
+                        return false;
+                    break;
+                }
+                readLength += r;
+            }
+        }
+
+        int blocks = (readLength - readPos) / BLOCK_SIZE;
+        decrypt(readPos, blocks);
 
-        private Cipher cipher;
+        dataLength = 0;
+        for (int i = 0; i < blocks; i++) {
+            int blockOffset = readPos;
 
-        private byte[] readBuffer = new byte[128];
-        private ByteBuffer dataBuffer = ByteBuffer.allocate(124);
+            int size = decrypted[blockOffset + 3] & 0xff;
+            if (size > 124) {
+                if (dataLength > 0)
+                    break;
+                throw new IOException("block data size too large");
+            }
 
-        {
-            dataBuffer.position(dataBuffer.limit());
+            System.arraycopy(decrypted, blockOffset + BLOCK_SIZE - size - ((124 - size) % 4), dataBuffer, dataLength, size);
+            dataLength += size;
+            readPos += BLOCK_SIZE;
         }
+        return true;
+    }
 
-        private boolean closed;
+    private void decrypt(int offset, int blocks) throws IOException {
+        if (pool == null || blocks < 2) {
+            decryptWithPooledCipher(offset, blocks);
+            return;
+        }
 
-        public RSAInputStream(InputStream input, BigInteger modulus, BigInteger exponent) {
-            this.input = input;
+        int tasks = Math.min(blocks, pool.getParallelism());
+        List<Callable<Void>> list = new ArrayList<>(tasks);
+        for (int t = 0; t < tasks; t++) {
+            int from = blocks * t / tasks;
+            int to = blocks * (t + 1) / tasks;
+            list.add(() -> {
+                decryptWithPooledCipher(offset + from * BLOCK_SIZE, to - from);
+                return null;
+            });
+        }
 
+        for (Future<Void> future : pool.invokeAll(list)) {
             try {
-                KeyFactory keyFactory = KeyFactory.getInstance("RSA");
-                RSAPrivateKeySpec keySpec = new RSAPrivateKeySpec(modulus, exponent);
-                cipher = Cipher.getInstance("RSA/ECB/NoPadding");
-                cipher.init(Cipher.DECRYPT_MODE, keyFactory.generatePrivate(keySpec));
-            } catch (GeneralSecurityException e) {
-                throw new RuntimeException(e);
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new IOException(e.getCause());
             }
         }
+    }
 
-        @Override
-        public int read() throws IOException {
-            if (closed)
-                throw new IOException("Stream closed");
-
-            if (dataBuffer.position() == dataBuffer.limit()) {
-                int remain = readBuffer.length;
-                while (remain > 0) {
-                    int r = input.read(readBuffer, readBuffer.length - remain, remain);
-                    if (r < 0)
-                        return r;
-                    remain -= r;
-                }
-
-                try {
-                    cipher.doFinal(readBuffer, 0, 128, readBuffer);
-                } catch (GeneralSecurityException | IndexOutOfBoundsException e) {
-                    throw new RuntimeException(e);
-                }
-
-                int size = readBuffer[3] & 0xff;
-                if (size > 124)
-                    throw new IOException("block data size too large");
-
-                dataBuffer.clear();
-                dataBuffer.put(readBuffer, 128 - size - ((124 - size) % 4), size);
-                dataBuffer.flip();
-            }
+    private void decryptWithPooledCipher(int offset, int blocks) {
+        Cipher cipher = ciphers.poll();
+        if (cipher == null)
+            cipher = createCipher(key);
+        try {
+            decrypt(cipher, offset, blocks);
+        } finally {
+            ciphers.offer(cipher);
+        }
+    }
 
-            return dataBuffer.get() & 0xff;
+    private void decrypt(Cipher cipher, int offset, int blocks) {
+        try {
+            for (int i = 0; i < blocks; i++, offset += BLOCK_SIZE)
+                cipher.doFinal(readBuffer, offset, BLOCK_SIZE, decrypted, offset);
+        } catch (GeneralSecurityException | IndexOutOfBoundsException e) {
+            throw new RuntimeException(e);
         }
+    }
 
-        @Override
-        public void close() throws IOException {
-            if (closed)
-                return;
+    private static PrivateKey createKey(RSAPrivateKeySpec keySpec) {
+        try {
+            return KeyFactory.getInstance("RSA").generatePrivate(keySpec);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            closed = true;
-            input.close();
+    private static Cipher createCipher(PrivateKey key) {
+        try {
+            Cipher cipher = Cipher.getInstance("RSA/ECB/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key);
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
         }
     }
-}
\ No newline at end of file
+}
@@ -21,7 +21,6 @@
  */
 package acmi.l2.clientmod.crypt.rsa;
 
-import acmi.l2.clientmod.io.DataOutputStream;
 import acmi.l2.clientmod.io.FinishableOutputStream;
 
 import javax.crypto.Cipher;
@@ -29,29 +28,76 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigInteger;
-import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
 import java.security.spec.RSAPublicKeySpec;
 import java.util.Arrays;
 import java.util.Objects;
-import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Deflater;
 
+/**
+ * Data is compressed as it is written.
+ * <p>
+ * Uncompressed size precedes compressed data, so if it isn't known up front compressed data is kept in memory
+ * until {@link #finish()}. With declared size compressed data is encrypted and written immediately.
+ */
 public final class L2Ver41xOutputStream extends FinishableOutputStream implements L2Ver41x {
-    private ByteArrayOutputStream dataBuffer = new ByteArrayOutputStream(0);
+    private final Deflater deflater = new Deflater();
+    private final byte[] deflateBuffer = new byte[8192];
+
+    private final int size;
+    private int written;
+
+    private ByteArrayOutputStream compressed;
 
     private boolean finished;
 
+    private byte[] singleByte;
+
     public L2Ver41xOutputStream(OutputStream output, BigInteger modulus, BigInteger exponent) {
         super(new RSAOutputStream(Objects.requireNonNull(output, "stream"), Objects.requireNonNull(modulus, "modulus"), Objects.requireNonNull(exponent, "exponent")));
+
+        this.size = -1;
+        this.compressed = new ByteArrayOutputStream(deflateBuffer.length);
+    }
+
+    /**
+     * @param size exact count of bytes that will be written
+     */
+    public L2Ver41xOutputStream(OutputStream output, BigInteger modulus, BigInteger exponent, int size) throws IOException {
+        super(new RSAOutputStream(Objects.requireNonNull(output, "stream"), Objects.requireNonNull(modulus, "modulus"), Objects.requireNonNull(exponent, "exponent")));
+
+        if (size < 0)
+            throw new IllegalArgumentException("size < 0");
+
+        this.size = size;
+        writeSize(size);
     }
 
     @Override
     public void write(int b) throws IOException {
+        if (singleByte == null)
+            singleByte = new byte[1];
+
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0)
+            throw new IndexOutOfBoundsException();
         if (finished)
             throw new IOException("write beyond end of stream");
+        if (size >= 0 && len > size - written)
+            throw new IOException("write beyond declared size");
+        if (len == 0)
+            return;
 
-        dataBuffer.write(b);
+        written += len;
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput())
+            deflate();
     }
 
     @Override
@@ -61,23 +107,55 @@ public final class L2Ver41xOutputStream extends FinishableOutputStream implement
 
         finished = true;
 
-        new DataOutputStream(out, null).writeInt(dataBuffer.size());
+        if (size >= 0 && written != size) {
+            deflater.end();
+            throw new IOException("declared size " + size + ", written " + written);
+        }
+
+        deflater.finish();
+        while (!deflater.finished())
+            deflate();
+        deflater.end();
 
-        DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(out);
-        dataBuffer.writeTo(deflaterOutputStream);
-        deflaterOutputStream.finish();
+        if (compressed != null) {
+            writeSize(written);
+            compressed.writeTo(out);
+            compressed = null;
+        }
 
         ((RSAOutputStream) out).finish();
     }
 
+    private void deflate() throws IOException {
+        int n = deflater.deflate(deflateBuffer, 0, deflateBuffer.length);
+        if (n > 0) {
+            if (compressed != null)
+                compressed.write(deflateBuffer, 0, n);
+            else
+                out.write(deflateBuffer, 0, n);
+        }
+    }
+
+    private void writeSize(int size) throws IOException {
+        out.write(new byte[]{(byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24)});
+    }
+
     private static class RSAOutputStream extends FinishableOutputStream {
+        private static final int BLOCKS_PER_CHUNK = 64;
+
         private Cipher cipher;
 
-        private ByteBuffer dataBuffer = ByteBuffer.allocate(124);
+        private byte[] data = new byte[124];
+        private int dataLength;
         private byte[] block = new byte[128];
 
+        private byte[] writeBuffer = new byte[128 * BLOCKS_PER_CHUNK];
+        private int writeLength;
+
         private boolean finished;
 
+        private byte[] singleByte;
+
         public RSAOutputStream(OutputStream output, BigInteger modulus, BigInteger exponent) {
             super(output);
 
@@ -93,15 +171,27 @@ public final class L2Ver41xOutputStream extends FinishableOutputStream implement
 
         @Override
         public void write(int b) throws IOException {
+            if (singleByte == null)
+                singleByte = new byte[1];
+
+            singleByte[0] = (byte) b;
+            write(singleByte, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
             if (finished)
                 throw new IOException("write beyond end of stream");
 
-            dataBuffer.put((byte) b);
+            while (len > 0) {
+                int n = Math.min(len, data.length - dataLength);
+                System.arraycopy(b, off, data, dataLength, n);
+                dataLength += n;
+                off += n;
+                len -= n;
 
-            if (dataBuffer.position() == dataBuffer.limit()) {
-                writeData();
-
-                dataBuffer.clear();
+                if (dataLength == data.length)
+                    writeData();
             }
         }
 
@@ -112,25 +202,32 @@ public final class L2Ver41xOutputStream extends FinishableOutputStream implement
 
             finished = true;
             writeData();
+            out.write(writeBuffer, 0, writeLength);
+            writeLength = 0;
             flush();
         }
 
         private void writeData() throws IOException {
-            int size = dataBuffer.position();
+            int size = dataLength;
             if (size == 0)
                 return;
 
             Arrays.fill(block, (byte) 0);
             block[3] = (byte) (size & 0xff);
-            System.arraycopy(dataBuffer.array(), 0, block, 128 - size - ((124 - size) % 4), size);
+            System.arraycopy(data, 0, block, 128 - size - ((124 - size) % 4), size);
 
             try {
-                cipher.doFinal(block, 0, 128, block);
+                cipher.doFinal(block, 0, 128, writeBuffer, writeLength);
             } catch (GeneralSecurityException e) {
                 throw new RuntimeException(e);
             }
+            dataLength = 0;
+            writeLength += 128;
 
-            out.write(block);
+            if (writeLength == writeBuffer.length) {
+                out.write(writeBuffer, 0, writeLength);
+                writeLength = 0;
+            }
         }
     }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2014 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.xor;
+
+import acmi.l2.clientmod.crypt.CryptCodec;
+import acmi.l2.clientmod.crypt.CryptCodecs;
+import acmi.l2.clientmod.io.FinishableOutputStream;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+public final class L2Ver120Codec implements CryptCodec, L2Ver120 {
+    @Override
+    public InputStream decoder(InputStream input, String name, boolean l2encdec) {
+        return new L2Ver120InputStream(input);
+    }
+
+    @Override
+    public FinishableOutputStream encoder(OutputStream output, String name) {
+        return new L2Ver120OutputStream(output);
+    }
+
+    @Override
+    public ByteBuffer decode(ByteBuffer src, String name, boolean l2encdec) {
+        return encode(src, name);
+    }
+
+    @Override
+    public ByteBuffer encode(ByteBuffer src, String name) {
+        ByteBuffer buffer = CryptCodecs.copy(src, src.isDirect());
+        XorUtil.xor120(buffer, START_IND);
+        return buffer;
+    }
+}
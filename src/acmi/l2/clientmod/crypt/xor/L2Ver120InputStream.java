@@ -27,7 +27,6 @@ import java.io.InputStream;
 import java.util.Objects;
 
 import static acmi.l2.clientmod.crypt.xor.L2Ver120.START_IND;
-import static acmi.l2.clientmod.crypt.xor.L2Ver120.getXORKey;
 
 public final class L2Ver120InputStream extends FilterInputStream {
     private int ind = START_IND;
@@ -40,14 +39,16 @@ public final class L2Ver120InputStream extends FilterInputStream {
     @Override
     public int read() throws IOException {
         int b = in.read();
-        return b < 0 ? b : b ^ getXORKey(ind++);
+        return b < 0 ? b : b ^ XorUtil.getXORKey120(ind++);
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
         int r = in.read(b, off, len);
-        for (int i = 0; i < r; i++)
-            b[off + i] ^= getXORKey(ind++);
+        if (r > 0) {
+            XorUtil.xor120(b, off, r, ind);
+            ind += r;
+        }
         return r;
     }
 
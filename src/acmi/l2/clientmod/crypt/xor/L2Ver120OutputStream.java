@@ -28,17 +28,37 @@ import java.io.OutputStream;
 import java.util.Objects;
 
 import static acmi.l2.clientmod.crypt.xor.L2Ver120.START_IND;
-import static acmi.l2.clientmod.crypt.xor.L2Ver120.getXORKey;
 
 public final class L2Ver120OutputStream extends FinishableOutputStream {
     private int ind = START_IND;
 
+    private byte[] writeBuffer;
+
     public L2Ver120OutputStream(OutputStream output) {
         super(Objects.requireNonNull(output, "stream"));
     }
 
     @Override
     public void write(int b) throws IOException {
-        out.write(b ^ getXORKey(ind++));
+        out.write(b ^ XorUtil.getXORKey120(ind++));
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0)
+            throw new IndexOutOfBoundsException();
+
+        if (writeBuffer == null)
+            writeBuffer = new byte[8192];
+
+        while (len > 0) {
+            int n = Math.min(len, writeBuffer.length);
+            System.arraycopy(b, off, writeBuffer, 0, n);
+            XorUtil.xor120(writeBuffer, 0, n, ind);
+            out.write(writeBuffer, 0, n);
+            ind += n;
+            off += n;
+            len -= n;
+        }
     }
 }
\ No newline at end of file
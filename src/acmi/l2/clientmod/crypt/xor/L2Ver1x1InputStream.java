@@ -43,8 +43,8 @@ public final class L2Ver1x1InputStream extends FilterInputStream {
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
         int r = in.read(b, off, len);
-        for (int i = 0; i < r; i++)
-            b[off + i] ^= xorKey;
+        if (r > 0)
+            XorUtil.xor(b, off, r, xorKey);
         return r;
     }
 }
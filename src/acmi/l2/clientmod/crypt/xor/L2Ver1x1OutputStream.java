@@ -30,6 +30,8 @@ import java.util.Objects;
 public final class L2Ver1x1OutputStream extends FinishableOutputStream {
     private int xorKey;
 
+    private byte[] writeBuffer;
+
     public L2Ver1x1OutputStream(OutputStream output, int xorKey) {
         super(Objects.requireNonNull(output, "stream"));
         this.xorKey = xorKey;
@@ -39,4 +41,22 @@ public final class L2Ver1x1OutputStream extends FinishableOutputStream {
     public void write(int b) throws IOException {
         out.write(b ^ xorKey);
     }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0)
+            throw new IndexOutOfBoundsException();
+
+        if (writeBuffer == null)
+            writeBuffer = new byte[8192];
+
+        while (len > 0) {
+            int n = Math.min(len, writeBuffer.length);
+            System.arraycopy(b, off, writeBuffer, 0, n);
+            XorUtil.xor(writeBuffer, 0, n, xorKey);
+            out.write(writeBuffer, 0, n);
+            off += n;
+            len -= n;
+        }
+    }
 }
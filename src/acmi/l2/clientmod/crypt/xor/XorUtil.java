@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2014 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.crypt.xor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Bulk XOR for L2Ver1x1 and L2Ver120. Plain counted loops on arrays, JIT vectorizes them
+ * (long-wide loops over a heap buffer view are not faster, see XorBenchmark in bench module).
+ */
+public final class XorUtil {
+    /**
+     * {@link L2Ver120#getXORKey(int)} depends only on low 16 bits of index.
+     */
+    private static final byte[] KEYSTREAM_120 = new byte[0x10000];
+
+    static {
+        for (int i = 0; i < KEYSTREAM_120.length; i++)
+            KEYSTREAM_120[i] = (byte) L2Ver120.getXORKey(i);
+    }
+
+    private XorUtil() {
+    }
+
+    public static void xor(byte[] b, int off, int len, int xorKey) {
+        byte key = (byte) xorKey;
+        for (int i = off, end = off + len; i < end; i++)
+            b[i] ^= key;
+    }
+
+    /**
+     * @param ind L2Ver120 index of b[off]
+     */
+    public static void xor120(byte[] b, int off, int len, int ind) {
+        byte[] keystream = KEYSTREAM_120;
+        while (len > 0) {
+            int k = ind & 0xffff;
+            int n = Math.min(len, keystream.length - k);
+            for (int i = off, end = off + n; i < end; i++, k++)
+                b[i] ^= keystream[k];
+            off += n;
+            len -= n;
+            ind += n;
+        }
+    }
+
+    /**
+     * XORs remaining bytes of buffer in place, position is not changed.
+     * Direct buffer is XORed by longs in native order, every byte of the key is the same.
+     */
+    public static void xor(ByteBuffer buffer, int xorKey) {
+        if (buffer.hasArray()) {
+            xor(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), xorKey);
+            return;
+        }
+
+        ByteBuffer region = buffer.duplicate().order(ByteOrder.nativeOrder());
+        long key = (xorKey & 0xffL) * 0x0101010101010101L;
+        int pos = region.position();
+        int end = region.limit();
+        for (; pos <= end - 8; pos += 8)
+            region.putLong(pos, region.getLong(pos) ^ key);
+        for (; pos < end; pos++)
+            region.put(pos, (byte) (region.get(pos) ^ xorKey));
+    }
+
+    /**
+     * XORs remaining bytes of buffer in place, position is not changed.
+     *
+     * @param ind L2Ver120 index of the byte at buffer position
+     */
+    public static void xor120(ByteBuffer buffer, int ind) {
+        if (buffer.hasArray()) {
+            xor120(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), ind);
+            return;
+        }
+
+        byte[] tmp = new byte[Math.min(buffer.remaining(), 8192)];
+        for (int pos = buffer.position(); pos < buffer.limit(); pos += tmp.length) {
+            int n = Math.min(tmp.length, buffer.limit() - pos);
+            ByteBuffer region = buffer.duplicate();
+            region.position(pos);
+            region.get(tmp, 0, n);
+            xor120(tmp, 0, n, ind + pos - buffer.position());
+            region.position(pos);
+            region.put(tmp, 0, n);
+        }
+    }
+
+    public static int getXORKey120(int ind) {
+        return KEYSTREAM_120[ind & 0xffff] & 0xff;
+    }
+}
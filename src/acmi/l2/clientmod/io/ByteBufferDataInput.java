@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2014 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+public class ByteBufferDataInput implements DataInput {
+    private final ByteBuffer buffer;
+    private final int offset;
+    private Charset charset;
+
+    public ByteBufferDataInput(ByteBuffer buffer, Charset charset) {
+        this(buffer, 0, charset);
+    }
+
+    /**
+     * @param buffer  data, read from its position to its limit
+     * @param offset  value returned by {@link #getPosition()} before anything is read
+     * @param charset charset for {@link #readLine()}
+     */
+    public ByteBufferDataInput(ByteBuffer buffer, int offset, Charset charset) {
+        this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.offset = offset;
+        this.charset = charset;
+    }
+
+    @Override
+    public Charset getCharset() {
+        return charset;
+    }
+
+    @Override
+    public int getPosition() {
+        return offset + buffer.position();
+    }
+
+    public int available() {
+        return buffer.remaining();
+    }
+
+    /**
+     * Remaining bytes, position of this input is not changed.
+     */
+    public ByteBuffer peek() {
+        return buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public void skip(int n) throws IOException {
+        if (n < 0 || n > buffer.remaining())
+            throw new EOFException();
+        buffer.position(buffer.position() + n);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        if (len < 0)
+            throw new IndexOutOfBoundsException();
+        if (len > buffer.remaining())
+            throw new EOFException();
+        buffer.get(b, off, len);
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        try {
+            return buffer.getShort() & 0xffff;
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        try {
+            return buffer.getInt();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    @Override
+    public int readCompactInt() throws IOException {
+        try {
+            return BufferUtil.getCompactInt(buffer);
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        try {
+            return buffer.getLong();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        try {
+            return buffer.getFloat();
+        } catch (BufferUnderflowException e) {
+            throw new EOFException();
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2014 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.io;
+
+import acmi.l2.clientmod.crypt.CryptCodecs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Decrypts or re-encrypts all Lineage 2 files of a folder in parallel, other files are copied as is.
+ * Every file is streamed, so memory use depends on pool parallelism, not on file sizes.
+ */
+public class CryptTool {
+    private static final int BUFFER_SIZE = 0x10000;
+    private static final int TAIL_SIZE = 20;
+
+    public static List<Result> convert(Path sourceFolder, Path targetFolder, int targetVersion, boolean l2encdec, boolean tail, ForkJoinPool pool, PrintStream log) throws IOException {
+        log = checkLog(log);
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(sourceFolder)) {
+            files = stream.filter(Files::isRegularFile)
+                    .collect(Collectors.toList());
+        }
+
+        List<ForkJoinTask<Result>> tasks = new ArrayList<>(files.size());
+        for (Path file : files) {
+            Path target = targetFolder.resolve(sourceFolder.relativize(file));
+            tasks.add(pool.submit(() -> convert(file, target, targetVersion, l2encdec, tail)));
+        }
+
+        List<Result> results = new ArrayList<>(tasks.size());
+        for (ForkJoinTask<Result> task : tasks) {
+            Result result = task.join();
+            log.println(result);
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * File that isn't a Lineage 2 file is copied to target, or skipped if target is the source.
+     *
+     * @param targetVersion 0 to write decrypted data without header
+     * @param tail          source has 20 byte tail after encrypted data, it is copied to encrypted target
+     *                      and dropped from decrypted one
+     */
+    public static Result convert(Path source, Path target, int targetVersion, boolean l2encdec, boolean tail) {
+        long start = System.nanoTime();
+        int version = 0;
+        long size = 0;
+        try (InputStream input = new BufferedInputStream(limit(Files.newInputStream(source), tail ? Files.size(source) - TAIL_SIZE : Long.MAX_VALUE), BUFFER_SIZE)) {
+            version = readVersion(input);
+            if (version == 0) {
+                input.close();
+                return copy(source, target, start);
+            }
+            byte[] tailBytes = tail && targetVersion != 0 ? readTail(source) : null;
+            InputStream decoder = FileInputStream.getInputStream(input, version, source.getFileName().toString(), l2encdec);
+            // RSA target writes the size first, without it the whole output would be buffered
+            long decodedSize = version / 100 == 4 ?
+                    decoder.available() :
+                    Files.size(source) - CryptCodecs.HEADER_SIZE - (tail ? TAIL_SIZE : 0);
+
+            Path parent = target.toAbsolutePath().getParent();
+            if (parent != null)
+                Files.createDirectories(parent);
+
+            Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (OutputStream fileOutput = new BufferedOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE);
+                 OutputStream output = targetVersion == 0 ? fileOutput : decodedSize >= 0 && decodedSize <= Integer.MAX_VALUE ?
+                         new FileOutputStream(fileOutput, target.getFileName().toString(), targetVersion, tail, (int) decodedSize) :
+                         new FileOutputStream(fileOutput, target.getFileName().toString(), targetVersion, tail)) {
+                if (tailBytes != null)
+                    ((FileOutputStream) output).setTail(tailBytes);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int r;
+                while ((r = decoder.read(buffer)) >= 0) {
+                    output.write(buffer, 0, r);
+                    size += r;
+                }
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+
+            return new Result(source, version, targetVersion, size, System.nanoTime() - start, null);
+        } catch (IOException | RuntimeException e) {
+            return new Result(source, version, targetVersion, size, System.nanoTime() - start, e);
+        }
+    }
+
+    /**
+     * @return crypt version from file header, 0 if it isn't a Lineage 2 file
+     */
+    private static int readVersion(InputStream input) throws IOException {
+        byte[] header = new byte[CryptCodecs.HEADER_SIZE];
+        int n = 0;
+        int r;
+        while (n < header.length && (r = input.read(header, n, header.length - n)) >= 0)
+            n += r;
+
+        String headerStr = new String(header, 0, n, StandardCharsets.UTF_16LE);
+        return n == header.length && headerStr.matches("Lineage2Ver\\d{3}") ? Integer.parseInt(headerStr.substring(11)) : 0;
+    }
+
+    private static byte[] readTail(Path source) throws IOException {
+        byte[] tail = new byte[TAIL_SIZE];
+        try (SeekableByteChannel channel = Files.newByteChannel(source)) {
+            ByteBuffer buffer = ByteBuffer.wrap(tail);
+            channel.position(channel.size() - TAIL_SIZE);
+            while (buffer.hasRemaining())
+                if (channel.read(buffer) < 0)
+                    throw new EOFException();
+        }
+        return tail;
+    }
+
+    private static Result copy(Path source, Path target, long start) {
+        try {
+            if (Files.exists(target) && Files.isSameFile(source, target))
+                return new Result(source, 0, 0, 0, System.nanoTime() - start, null, false);
+
+            Path parent = target.toAbsolutePath().getParent();
+            if (parent != null)
+                Files.createDirectories(parent);
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+            return new Result(source, 0, 0, Files.size(target), System.nanoTime() - start, null, true);
+        } catch (IOException | RuntimeException e) {
+            return new Result(source, 0, 0, 0, System.nanoTime() - start, e);
+        }
+    }
+
+    private static InputStream limit(InputStream input, long limit) {
+        return new FilterInputStream(input) {
+            private long remaining = limit;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0)
+                    return -1;
+
+                int b = in.read();
+                if (b >= 0)
+                    remaining--;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0)
+                    return 0;
+                if (remaining <= 0)
+                    return -1;
+
+                int r = in.read(b, off, (int) Math.min(len, remaining));
+                if (r > 0)
+                    remaining -= r;
+                return r;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long r = in.skip(Math.min(n, remaining));
+                remaining -= r;
+                return r;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int) Math.min(in.available(), remaining);
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+    }
+
+    private static PrintStream checkLog(PrintStream log) {
+        return log != null ? log : new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+            }
+        });
+    }
+
+    public static final class Result {
+        private final Path file;
+        private final int sourceVersion;
+        private final int targetVersion;
+        private final long size;
+        private final long time;
+        private final Exception error;
+        private final boolean copied;
+
+        public Result(Path file, int sourceVersion, int targetVersion, long size, long time, Exception error) {
+            this(file, sourceVersion, targetVersion, size, time, error, false);
+        }
+
+        public Result(Path file, int sourceVersion, int targetVersion, long size, long time, Exception error, boolean copied) {
+            this.file = file;
+            this.sourceVersion = sourceVersion;
+            this.targetVersion = targetVersion;
+            this.size = size;
+            this.time = time;
+            this.error = error;
+            this.copied = copied;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * 0 if file isn't a Lineage 2 file
+         */
+        public int getSourceVersion() {
+            return sourceVersion;
+        }
+
+        public int getTargetVersion() {
+            return targetVersion;
+        }
+
+        /**
+         * Decrypted data size
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Nanoseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+
+        /**
+         * Not a Lineage 2 file, copied as is
+         */
+        public boolean isCopied() {
+            return copied;
+        }
+
+        /**
+         * Not a Lineage 2 file, left in place
+         */
+        public boolean isSkipped() {
+            return error == null && sourceVersion == 0 && !copied;
+        }
+
+        /**
+         * Decrypted megabytes per second
+         */
+        public double getThroughput() {
+            return time > 0 ? size * 1e3 / time : 0;
+        }
+
+        @Override
+        public String toString() {
+            if (error != null)
+                return String.format("%s: %s%s", file, error.getClass().getSimpleName(), error.getMessage() != null ? ": " + error.getMessage() : "");
+            if (copied)
+                return String.format("%s: copied, %d bytes", file, size);
+            if (isSkipped())
+                return String.format("%s: skipped", file);
+
+            return String.format("%s: %d -> %d, %d bytes, %.1f ms, %.1f MB/s", file, sourceVersion, targetVersion, size, time / 1e6, getThroughput());
+        }
+    }
+
+    public static void main(String[] args) {
+        int targetVersion = 0;
+        boolean l2encdec = false;
+        boolean tail = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> folders = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-e":
+                        targetVersion = Integer.parseInt(args[++i]);
+                        break;
+                    case "-l2encdec":
+                        l2encdec = true;
+                        break;
+                    case "-tail":
+                        tail = true;
+                        break;
+                    case "-t":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        folders.add(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            folders.clear();
+        }
+
+        if (folders.size() != 2) {
+            System.out.println("USAGE: " + CryptTool.class.getSimpleName() + " [-e version] [-l2encdec] [-tail] [-t threads] src dst");
+            System.out.println("\t-e version - encrypt with version, decrypt only if not set");
+            System.out.println("\t-l2encdec  - decrypt 41x with l2encdec key");
+            System.out.println("\t-tail      - files have 20 byte tail after encrypted data, it is kept when encrypting");
+            System.out.println("\t-t threads - thread count, available processors by default");
+            System.out.println("\tsrc        - input folder");
+            System.out.println("\tdst        - output folder, can be the same as src");
+            System.exit(0);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            long start = System.nanoTime();
+            List<Result> results = convert(Paths.get(folders.get(0)), Paths.get(folders.get(1)), targetVersion, l2encdec, tail, pool, System.out);
+            long time = System.nanoTime() - start;
+            long size = results.stream().filter(r -> r.getError() == null && r.getSourceVersion() != 0).mapToLong(Result::getSize).sum();
+            long failed = results.stream().filter(r -> r.getError() != null).count();
+            long other = results.stream().filter(r -> r.isCopied() || r.isSkipped()).count();
+            System.out.println(String.format("%d files, %d failed, %d not Lineage 2, %d bytes, %.1f s, %.1f MB/s", results.size(), failed, other, size, time / 1e9, size * 1e3 / time));
+        } catch (IOException e) {
+            System.err.print(e.getClass());
+            if (e.getMessage() != null)
+                System.err.print(": " + e.getMessage());
+            System.err.println();
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -21,25 +21,16 @@
  */
 package acmi.l2.clientmod.io;
 
-import acmi.l2.clientmod.crypt.blowfish.L2Ver21xOutputStream;
-import acmi.l2.clientmod.crypt.rsa.L2Ver41xOutputStream;
-import acmi.l2.clientmod.crypt.xor.L2Ver120OutputStream;
-import acmi.l2.clientmod.crypt.xor.L2Ver1x1OutputStream;
+import acmi.l2.clientmod.crypt.CryptCodecs;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 
-import static acmi.l2.clientmod.crypt.blowfish.L2Ver21x.BLOWFISH_KEY_211;
-import static acmi.l2.clientmod.crypt.blowfish.L2Ver21x.BLOWFISH_KEY_212;
-import static acmi.l2.clientmod.crypt.rsa.L2Ver41x.MODULUS_L2ENCDEC;
-import static acmi.l2.clientmod.crypt.rsa.L2Ver41x.PUBLIC_EXPONENT_L2ENCDEC;
-import static acmi.l2.clientmod.crypt.xor.L2Ver1x1.XOR_KEY_111;
-import static acmi.l2.clientmod.crypt.xor.L2Ver1x1.getXORKey121;
-
 public class FileOutputStream extends FinishableOutputStream {
     private FinishableOutputStream stream;
     private boolean writeTail;
+    private byte[] tail;
 
     private boolean finished;
 
@@ -50,35 +41,33 @@ public class FileOutputStream extends FinishableOutputStream {
         writeHeader(version);
     }
 
+    /**
+     * @param size exact count of bytes that will be written
+     */
+    public FileOutputStream(OutputStream output, String name, int version, boolean writeTail, int size) throws IOException {
+        super(output);
+        writeHeader(version);
+        this.stream = getOutputStream(output, name, version, size);
+        this.writeTail = writeTail;
+    }
+
     private void writeHeader(int version) throws IOException {
         out.write(("Lineage2Ver" + version).getBytes(Charset.forName("utf-16le")));
     }
 
     public static FinishableOutputStream getOutputStream(OutputStream output, String name, int version) {
-        switch (version) {
-            //XOR
-            case 111:
-            case 121:
-                return new L2Ver1x1OutputStream(output, version == 111 ?
-                        XOR_KEY_111 :
-                        getXORKey121(name));
-            case 120:
-                return new L2Ver120OutputStream(output);
-            //BLOWFISH
-            case 211:
-            case 212:
-                return new L2Ver21xOutputStream(output, version == 211 ?
-                        BLOWFISH_KEY_211 :
-                        BLOWFISH_KEY_212);
-            //RSA
-            case 411:
-            case 412:
-            case 413:
-            case 414:
-                return new L2Ver41xOutputStream(output, MODULUS_L2ENCDEC, PUBLIC_EXPONENT_L2ENCDEC);
-            default:
-                throw new RuntimeException("Unsupported version: " + version);
-        }
+        return CryptCodecs.getCodec(version).encoder(output, name);
+    }
+
+    public static FinishableOutputStream getOutputStream(OutputStream output, String name, int version, int size) throws IOException {
+        return CryptCodecs.getCodec(version).encoder(output, name, size);
+    }
+
+    /**
+     * @param tail bytes written after encrypted data by {@link #finish()} instead of zeros
+     */
+    public void setTail(byte[] tail) {
+        this.tail = tail.clone();
     }
 
     @Override
@@ -86,6 +75,11 @@ public class FileOutputStream extends FinishableOutputStream {
         stream.write(b);
     }
 
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        stream.write(b, off, len);
+    }
+
     @Override
     public void flush() throws IOException {
         stream.flush();
@@ -101,9 +95,13 @@ public class FileOutputStream extends FinishableOutputStream {
         stream.finish();
 
         if (writeTail) {
-            //TODO
-            for (int i = 0; i < 20; i++)
-                out.write(0);
+            if (tail != null) {
+                out.write(tail);
+            } else {
+                //TODO
+                for (int i = 0; i < 20; i++)
+                    out.write(0);
+            }
         }
         out.flush();
     }
@@ -21,15 +21,26 @@
  */
 package acmi.l2.clientmod.io;
 
+import acmi.l2.clientmod.crypt.xor.XorUtil;
+
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 
 public class RandomAccessFile implements DataInput, DataOutput, Closeable {
     private static Charset defaultCharset;
+    private static int defaultBufferSize;
 
     static {
         try {
@@ -37,9 +48,11 @@ public class RandomAccessFile implements DataInput, DataOutput, Closeable {
         } catch (UnsupportedCharsetException e) {
             defaultCharset = Charset.defaultCharset();
         }
+        defaultBufferSize = Math.max(Integer.getInteger(RandomAccessFile.class.getName() + ".bufferSize", 8192), 0);
     }
 
     protected final java.io.RandomAccessFile file;
+    private final FileChannel channel;
     private final String path;
 
     private final int cryptVer;
@@ -48,8 +61,38 @@ public class RandomAccessFile implements DataInput, DataOutput, Closeable {
 
     private Charset charset;
 
-    public RandomAccessFile(File f, boolean readOnly, Charset charset) throws IOException {
+    /**
+     * Read window, already decrypted. Covers file bytes
+     * [bufferStart, bufferStart + bufferLimit), bufferPos is the logical file pointer inside it.
+     * When the window is valid the underlying file pointer stays at bufferStart + bufferLimit.
+     */
+    private final int bufferSize;
+    private byte[] buffer;
+    private long bufferStart;
+    private int bufferPos;
+    private int bufferLimit;
+
+    /**
+     * Whole file mapped into memory, raw (not decrypted). Only for read only files.
+     * Mapping is never moved, sequential reads go through its duplicate. It's dropped on close,
+     * so the file is unmapped (and unlocked on Windows) once buffers returned by {@link #getBuffer} are gone.
+     */
+    private volatile ByteBuffer mapping;
+    private ByteBuffer mapped;
+
+    /**
+     * Channel for {@link #readAt} and {@link #transferTo} of not mapped file, separate from {@link #file}.
+     * Interrupted reader closes it (FileChannel is interruptible), it's reopened for the others.
+     */
+    private volatile FileChannel readChannel;
+    private final Object readChannelLock = new Object();
+
+    public RandomAccessFile(File f, boolean readOnly, boolean mapped, Charset charset) throws IOException {
+        if (mapped && !readOnly)
+            throw new IllegalArgumentException("Only read only file can be mapped");
+
         file = new java.io.RandomAccessFile(f, readOnly ? "r" : "rw");
+        channel = file.getChannel();
         path = f.getPath();
 
         String l2CryptHeader;
@@ -74,6 +117,26 @@ public class RandomAccessFile implements DataInput, DataOutput, Closeable {
         }
 
         setCharset(charset);
+        bufferSize = mapped ? 0 : defaultBufferSize;
+
+        if (mapped) {
+            try {
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+            this.mapped = mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.mapped.position(startOffset);
+        }
+    }
+
+    public RandomAccessFile(File f, boolean readOnly, Charset charset) throws IOException {
+        this(f, readOnly, false, charset);
+    }
+
+    public RandomAccessFile(File f, boolean readOnly, boolean mapped) throws IOException {
+        this(f, readOnly, mapped, defaultCharset);
     }
 
     public RandomAccessFile(File f, boolean readOnly) throws IOException {
@@ -114,28 +177,237 @@ public class RandomAccessFile implements DataInput, DataOutput, Closeable {
         return charset;
     }
 
+    public boolean isMapped() {
+        return mapping != null;
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
     public void setCharset(Charset charset) {
         this.charset = charset;
     }
 
     public void setPosition(int pos) throws IOException {
-        file.seek(pos + startOffset);
+        long filePos = pos + startOffset;
+        if (mapped != null) {
+            if (pos < 0 || filePos > mapped.limit())
+                throw new EOFException();
+            mapped.position((int) filePos);
+            return;
+        }
+
+        if (bufferLimit > 0 && filePos >= bufferStart && filePos <= bufferStart + bufferLimit) {
+            bufferPos = (int) (filePos - bufferStart);
+            return;
+        }
+
+        bufferLimit = bufferPos = 0;
+        file.seek(filePos);
     }
 
     public int getPosition() throws IOException {
+        if (mapped != null)
+            return mapped.position() - startOffset;
+
+        if (bufferLimit > 0)
+            return (int) (bufferStart + bufferPos) - startOffset;
+
         return (int) file.getFilePointer() - startOffset;
     }
 
+    public int length() throws IOException {
+        return (int) file.length() - startOffset;
+    }
+
     public void setLength(int newLength) throws IOException {
+        checkWritable();
+        invalidateBuffer();
         file.setLength(newLength + startOffset);
     }
 
     @Override
     public void close() throws IOException {
+        mapping = null;
+        mapped = null;
+        buffer = null;
+        bufferLimit = bufferPos = 0;
         file.close();
+
+        synchronized (readChannelLock) {
+            if (readChannel != null) {
+                readChannel.close();
+                readChannel = null;
+            }
+        }
+    }
+
+    private FileChannel readChannel() throws IOException {
+        FileChannel readChannel = this.readChannel;
+        if (readChannel != null && readChannel.isOpen())
+            return readChannel;
+
+        synchronized (readChannelLock) {
+            readChannel = this.readChannel;
+            if (readChannel == null || !readChannel.isOpen()) {
+                if (!channel.isOpen())
+                    throw new ClosedChannelException();
+                this.readChannel = readChannel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ);
+            }
+            return readChannel;
+        }
+    }
+
+    /**
+     * Returns decrypted little-endian read only view of [pos, pos + size) region.
+     * Position of this file is not changed.
+     * <p>
+     * Mapped not encrypted file returns a slice of the mapping without copying,
+     * otherwise data is copied into a new buffer.
+     */
+    public ByteBuffer getBuffer(int pos, int size) throws IOException {
+        ByteBuffer mapping = this.mapping;
+        if (mapping != null) {
+            long filePos = pos + startOffset;
+            if (pos < 0 || size < 0 || filePos + size > mapping.limit())
+                throw new EOFException();
+
+            ByteBuffer region = mapping.duplicate();
+            region.limit((int) filePos + size).position((int) filePos);
+            if (cryptVer == 0)
+                return region.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+
+            byte[] data = new byte[size];
+            region.get(data);
+            xor(data, 0, size);
+            return ByteBuffer.wrap(data).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        byte[] data = new byte[size];
+        readAt(pos, data, 0, size);
+        return ByteBuffer.wrap(data).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reads exactly len decrypted bytes starting at pos.
+     * Doesn't use or change position, so it's safe to call while another thread
+     * reads or seeks this file.
+     * Interrupted reader fails with {@link ClosedByInterruptException}, reads of other threads go on.
+     */
+    public void readAt(int pos, byte[] b, int off, int len) throws IOException {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0)
+            throw new IndexOutOfBoundsException();
+
+        long filePos = (long) pos + startOffset;
+        ByteBuffer mapping = this.mapping;
+        if (mapping != null) {
+            if (pos < 0 || filePos + len > mapping.limit())
+                throw new EOFException();
+
+            ByteBuffer region = mapping.duplicate();
+            region.position((int) filePos);
+            region.get(b, off, len);
+        } else {
+            ByteBuffer dst = ByteBuffer.wrap(b, off, len);
+            while (dst.hasRemaining()) {
+                try {
+                    if (readChannel().read(dst, filePos + dst.position() - off) < 0)
+                        throw new EOFException();
+                } catch (ClosedByInterruptException e) {
+                    throw e;
+                } catch (ClosedChannelException e) {
+                    // closed by interrupt of another reader
+                    if (!channel.isOpen())
+                        throw e;
+                }
+            }
+        }
+
+        if (cryptVer != 0)
+            xor(b, off, len);
+    }
+
+    /**
+     * Writes decrypted [pos, pos + count) region of this file at the current position of target.
+     * When both files store bytes the same way (same xor key or no crypt) data goes
+     * through {@link FileChannel#transferTo} without copying into the heap.
+     */
+    public void transferTo(int pos, int count, RandomAccessFile target) throws IOException {
+        if (pos < 0 || count < 0)
+            throw new IndexOutOfBoundsException();
+
+        target.checkWritable();
+        target.invalidateBuffer();
+
+        if (channel.isOpen() && xorKey == target.xorKey) {
+            long filePos = (long) pos + startOffset;
+            for (long done = 0; done < count; ) {
+                long n = readChannel().transferTo(filePos + done, count - done, target.channel);
+                if (n <= 0)
+                    throw new EOFException();
+                done += n;
+            }
+            return;
+        }
+
+        byte[] b = new byte[Math.min(count, 0x10000)];
+        for (int done = 0; done < count; ) {
+            int n = Math.min(b.length, count - done);
+            readAt(pos + done, b, 0, n);
+            target.write(b, 0, n);
+            done += n;
+        }
+    }
+
+    private void checkWritable() throws IOException {
+        if (mapping != null)
+            throw new IOException("File is opened read only");
+    }
+
+    /**
+     * Drops the read window and moves the underlying file pointer to the logical position.
+     */
+    private void invalidateBuffer() throws IOException {
+        if (bufferLimit > 0) {
+            file.seek(bufferStart + bufferPos);
+            bufferLimit = bufferPos = 0;
+        }
+    }
+
+    private boolean fillBuffer() throws IOException {
+        invalidateBuffer();
+
+        if (bufferSize == 0)
+            return false;
+
+        if (buffer == null)
+            buffer = new byte[bufferSize];
+
+        long start = file.getFilePointer();
+        int n = file.read(buffer, 0, buffer.length);
+        if (n <= 0)
+            return false;
+
+        if (cryptVer != 0)
+            xor(buffer, 0, n);
+
+        bufferStart = start;
+        bufferLimit = n;
+        return true;
+    }
+
+    private void xor(byte[] b, int off, int len) {
+        XorUtil.xor(b, off, len, xorKey);
     }
 
     public int read() throws IOException {
+        if (mapped != null)
+            return mapped.hasRemaining() ? (mapped.get() ^ xorKey) & 0xff : -1;
+
+        if (bufferPos < bufferLimit || fillBuffer())
+            return buffer[bufferPos++] & 0xff;
+
         if (cryptVer != 0) {
             int b = file.read();
             if (b == -1)
@@ -148,15 +420,101 @@ public class RandomAccessFile implements DataInput, DataOutput, Closeable {
 
     @Override
     public void readFully(byte b[], int off, int len) throws IOException {
+        if (len < 0)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return;
+
+        if (mapped != null) {
+            if (len > mapped.remaining())
+                throw new EOFException();
+            mapped.get(b, off, len);
+            if (cryptVer != 0)
+                xor(b, off, len);
+            return;
+        }
+
+        int available = bufferLimit - bufferPos;
+        if (len <= available) {
+            System.arraycopy(buffer, bufferPos, b, off, len);
+            bufferPos += len;
+            return;
+        }
+
+        if (available > 0) {
+            System.arraycopy(buffer, bufferPos, b, off, available);
+            bufferPos += available;
+            off += available;
+            len -= available;
+        }
+
+        if (len < bufferSize && fillBuffer() && len <= bufferLimit) {
+            System.arraycopy(buffer, 0, b, off, len);
+            bufferPos = len;
+            return;
+        }
+
+        invalidateBuffer();
         file.readFully(b, off, len);
 
-        if (cryptVer != 0) {
-            for (int i = 0; i < len; i++)
-                b[off + i] ^= xorKey;
+        if (cryptVer != 0)
+            xor(b, off, len);
+    }
+
+    @Override
+    public void skip(int n) throws IOException {
+        if (mapped != null) {
+            if (n < 0 || n > mapped.remaining())
+                throw new EOFException();
+            mapped.position(mapped.position() + n);
+        } else if (n >= 0 && n <= bufferLimit - bufferPos)
+            bufferPos += n;
+        else
+            DataInput.super.skip(n);
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        if (mapped != null) {
+            try {
+                return (mapped.getShort() ^ xorKey) & 0xffff;
+            } catch (BufferUnderflowException e) {
+                throw new EOFException();
+            }
         }
+
+        if (bufferLimit - bufferPos < 2)
+            return DataInput.super.readUnsignedShort();
+
+        int ch1 = buffer[bufferPos++] & 0xff;
+        int ch2 = buffer[bufferPos++] & 0xff;
+        return ch1 + (ch2 << 8);
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        if (mapped != null) {
+            try {
+                return mapped.getInt() ^ xorKey;
+            } catch (BufferUnderflowException e) {
+                throw new EOFException();
+            }
+        }
+
+        if (bufferLimit - bufferPos < 4)
+            return DataInput.super.readInt();
+
+        int ch1 = buffer[bufferPos++] & 0xff;
+        int ch2 = buffer[bufferPos++] & 0xff;
+        int ch3 = buffer[bufferPos++] & 0xff;
+        int ch4 = buffer[bufferPos++] & 0xff;
+        return (ch1 + (ch2 << 8) + (ch3 << 16) + (ch4 << 24));
     }
 
     public void write(int b) throws IOException {
+        checkWritable();
+        invalidateBuffer();
+
         if (cryptVer != 0)
             file.write(b ^ xorKey);
         else
@@ -167,10 +525,12 @@ public class RandomAccessFile implements DataInput, DataOutput, Closeable {
         if ((off | len | (b.length - (len + off)) | (off + len)) < 0)
             throw new IndexOutOfBoundsException();
 
+        checkWritable();
+        invalidateBuffer();
+
         if (cryptVer != 0) {
             byte[] toWrite = Arrays.copyOfRange(b, off, off + len);
-            for (int i = 0; i < toWrite.length; i++)
-                toWrite[i] ^= xorKey;
+            xor(toWrite, 0, toWrite.length);
             file.write(toWrite);
         } else {
             file.write(b, off, len);
@@ -24,6 +24,8 @@ package acmi.l2.clientmod.io;
 import java.io.*;
 import java.lang.ref.Reference;
 import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.util.*;
 import java.util.function.Consumer;
@@ -31,6 +33,10 @@ import java.util.stream.Collectors;
 
 import static acmi.l2.clientmod.io.ByteUtil.*;
 
+/**
+ * Reading methods (tables, references, header offsets, raw object data) don't depend on
+ * file position, so a package can be shared by several threads while nobody modifies it.
+ */
 public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
     public static final int UNREAL_PACKAGE_MAGIC = 0x9E2A83C1;
 
@@ -46,6 +52,12 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
     public static final int GUID_OFFSET = 36;
     public static final int GENERATIONS_OFFSET = 52;
 
+    /**
+     * Read only packages are memory mapped with -Dacmi.l2.clientmod.io.UnrealPackageFile.mmap=true
+     * or {@link #UnrealPackageFile(File, boolean, boolean, Charset)}.
+     */
+    private static final boolean mapReadOnly = Boolean.getBoolean(UnrealPackageFile.class.getName() + ".mmap");
+
     private RandomAccessFile file;
     private final String packageName;
 
@@ -53,28 +65,45 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
     private int licensee;
     private int flags;
 
-    private List<NameEntry> names;
-    private List<ExportEntry> exports;
-    private List<ImportEntry> imports;
+    private TableView<NameEntry> names;
+    private TableView<ExportEntry> exports;
+    private TableView<ImportEntry> imports;
+
+    /**
+     * Case insensitive lookup indexes, built on first use, kept up to date when entries are added
+     * and dropped when a table is reread or transformed.
+     */
+    private volatile Map<String, Integer> nameIndex;
+    private volatile Map<String, Integer> importIndex;
+    private volatile Map<String, Integer> exportIndex;
 
     private UUID uuid;
 
+    private Edit edit;
+
     private List<Generation> generations;
 
     public UnrealPackageFile(String path, boolean readOnly, Charset charset) throws IOException {
-        this(new RandomAccessFile(path, readOnly, charset));
+        this(new File(path), readOnly, charset);
     }
 
     public UnrealPackageFile(String path, boolean readOnly) throws IOException {
-        this(new RandomAccessFile(path, readOnly));
+        this(new File(path), readOnly);
     }
 
     public UnrealPackageFile(File file, boolean readOnly, Charset charset) throws IOException {
-        this(new RandomAccessFile(file, readOnly, charset));
+        this(file, readOnly, readOnly && mapReadOnly, charset);
+    }
+
+    /**
+     * @param mapped map read only file into memory, mapping is released on {@link #close()}
+     */
+    public UnrealPackageFile(File file, boolean readOnly, boolean mapped, Charset charset) throws IOException {
+        this(new RandomAccessFile(file, readOnly, mapped, charset));
     }
 
     public UnrealPackageFile(File file, boolean readOnly) throws IOException {
-        this(new RandomAccessFile(file, readOnly));
+        this(new RandomAccessFile(file, readOnly, readOnly && mapReadOnly));
     }
 
     public UnrealPackageFile(RandomAccessFile file) throws IOException {
@@ -167,7 +196,10 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
         for (int i = 0; i < count; i++)
             tmp.add(new NameEntry(this, i, file.readLine(), file.readInt()));
 
-        names = Collections.unmodifiableList(tmp);
+        names = new TableView<>(tmp);
+        nameIndex = null;
+        importIndex = null;
+        exportIndex = null;
     }
 
     public List<ExportEntry> getExportTable() {
@@ -190,7 +222,8 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
                     file.readCompactInt(),
                     file.readCompactInt()));
 
-        exports = Collections.unmodifiableList(tmp);
+        exports = new TableView<>(tmp);
+        exportIndex = null;
     }
 
     public List<ImportEntry> getImportTable() {
@@ -210,7 +243,8 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
                     file.readInt(),
                     file.readCompactInt()));
 
-        imports = Collections.unmodifiableList(tmp);
+        imports = new TableView<>(tmp);
+        importIndex = null;
     }
 
     public UUID getUUID() {
@@ -253,16 +287,51 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
         return objectReference(index);
     }
 
+    private static String indexKey(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private Map<String, Integer> getNameIndex() {
+        Map<String, Integer> index = nameIndex;
+        if (index == null) {
+            List<NameEntry> nameTable = getNameTable();
+            index = new HashMap<>(nameTable.size() * 2);
+            for (int i = 0; i < nameTable.size(); i++)
+                index.putIfAbsent(indexKey(nameTable.get(i).getName()), i);
+            nameIndex = index;
+        }
+        return index;
+    }
+
+    private Map<String, Integer> getImportIndex() {
+        Map<String, Integer> index = importIndex;
+        if (index == null) {
+            List<ImportEntry> importTable = getImportTable();
+            index = new HashMap<>(importTable.size() * 2);
+            for (ImportEntry entry : importTable)
+                index.putIfAbsent(indexKey(entry.getObjectFullName()), entry.getObjectReference());
+            importIndex = index;
+        }
+        return index;
+    }
+
+    private Map<String, Integer> getExportIndex() {
+        Map<String, Integer> index = exportIndex;
+        if (index == null) {
+            List<ExportEntry> exportTable = getExportTable();
+            index = new HashMap<>(exportTable.size() * 2);
+            for (ExportEntry entry : exportTable)
+                index.putIfAbsent(indexKey(entry.getObjectInnerFullName()), entry.getObjectReference());
+            exportIndex = index;
+        }
+        return index;
+    }
+
     public int nameReference(String name) {
-        try {
-            return getNameTable().parallelStream()
-                    .filter(e -> e.getName().equalsIgnoreCase(name))
-                    .findAny()
-                    .get()
-                    .getIndex();
-        } catch (NoSuchElementException e) {
+        if (name == null)
             return -1;
-        }
+
+        return getNameIndex().getOrDefault(indexKey(name), -1);
     }
 
     @Deprecated
@@ -280,28 +349,18 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
 
     @Deprecated
     public int importReference(String name) {
-        try {
-            return getImportTable().stream()
-                    .filter(entry -> entry.getObjectFullName().equalsIgnoreCase(name))
-                    .findAny()
-                    .get()
-                    .getObjectReference();
-        } catch (NoSuchElementException ignore) {
+        if (name == null)
             return 0;
-        }
+
+        return getImportIndex().getOrDefault(indexKey(name), 0);
     }
 
     @Deprecated
     public int exportReference(String name) {
-        try {
-            return getExportTable().stream()
-                    .filter(entry -> entry.getObjectInnerFullName().equalsIgnoreCase(name))
-                    .findAny()
-                    .get()
-                    .getObjectReference();
-        } catch (NoSuchElementException ignore) {
+        if (name == null)
             return 0;
-        }
+
+        return getExportIndex().getOrDefault(indexKey(name), 0);
     }
 
     public void updateNameTable(Consumer<List<NameEntry>> transformation) throws IOException {
@@ -309,6 +368,26 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
 
         transformation.accept(nameTable);
 
+        if (edit != null) {
+            List<NameEntry> tmp = new ArrayList<>(nameTable.size());
+            for (NameEntry entry : nameTable)
+                tmp.add(new NameEntry(this, tmp.size(), entry.getName(), entry.getFlags()));
+            names = new TableView<>(tmp);
+            nameIndex = null;
+            importIndex = null;
+            exportIndex = null;
+            return;
+        }
+
+        writeTablesAtDataEnd(nameTable);
+
+        readNameTable();
+    }
+
+    /**
+     * Writes name table and the following import and export tables after object data.
+     */
+    private void writeTablesAtDataEnd(List<NameEntry> nameTable) throws IOException {
         int newNameTablePos = getDataEndOffset();
         file.setPosition(newNameTablePos);
         writeNameTable(nameTable);
@@ -329,8 +408,6 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
 
         file.setPosition(IMPORT_OFFSET_OFFSET);
         file.writeInt(newImportTablePos);
-
-        readNameTable();
     }
 
     public void updateImportTable(Consumer<List<ImportEntry>> transformation) throws IOException {
@@ -338,6 +415,24 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
 
         transformation.accept(importTable);
 
+        if (edit != null) {
+            List<ImportEntry> tmp = new ArrayList<>(importTable.size());
+            for (ImportEntry entry : importTable)
+                tmp.add(new ImportEntry(this, tmp.size(), entry.classPackage, entry.className, entry.objectPackage, entry.objectName));
+            imports = new TableView<>(tmp);
+            importIndex = null;
+            return;
+        }
+
+        writeImportTableInPlace(importTable);
+
+        readImportTable();
+    }
+
+    /**
+     * Writes import table at its offset and the following export table.
+     */
+    private void writeImportTableInPlace(List<ImportEntry> importTable) throws IOException {
         file.setPosition(getImportTableOffset());
         writeImportTable(importTable);
         int newExportTablePos = file.getPosition();
@@ -348,16 +443,25 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
         file.writeInt(newExportTablePos);
         file.setPosition(IMPORT_COUNT_OFFSET);
         file.writeInt(importTable.size());
-
-        readImportTable();
     }
 
     public void addNameEntries(Map<String, Integer> names) throws IOException {
-        updateNameTable(nameTable -> names.forEach((k, v) -> {
-            NameEntry entry = new NameEntry(null, 0, k, v);
-            if (!nameTable.contains(entry))
-                nameTable.add(entry);
-        }));
+        Map<String, Integer> index = getNameIndex();
+        Set<String> added = new HashSet<>();
+        List<NameEntry> entries = new ArrayList<>();
+        names.forEach((k, v) -> {
+            if (!index.containsKey(indexKey(k)) && added.add(indexKey(k)))
+                entries.add(new NameEntry(this, getNameTable().size() + entries.size(), k, v));
+        });
+        if (entries.isEmpty())
+            return;
+
+        TableView<NameEntry> nameTable = this.names.append(entries);
+        if (edit == null)
+            writeTablesAtDataEnd(nameTable);
+        this.names = nameTable;
+        for (NameEntry entry : entries)
+            index.putIfAbsent(indexKey(entry.getName()), entry.getIndex());
     }
 
     public void updateNameEntry(int index, String newName, int newFlags) throws IOException {
@@ -382,35 +486,61 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
         });
         addNameEntries(namesToAdd);
 
-        updateImportTable(importTable -> {
-            for (Map.Entry<String, String> entry : imports.entrySet()) {
-                String[] namePath = entry.getKey().split("\\.");
-                String[] classPath = entry.getValue().split("\\.");
-
-                int pckg = 0;
-                ImportEntry importEntry;
-                for (int i = 0; i < namePath.length - 1; i++) {
-                    importEntry = new ImportEntry(this, 0,
+        List<ImportEntry> added = new ArrayList<>();
+        Map<String, Integer> addedIndex = new HashMap<>();
+        for (Map.Entry<String, String> entry : imports.entrySet()) {
+            String[] namePath = entry.getKey().split("\\.");
+            String[] classPath = entry.getValue().split("\\.");
+
+            int pckg = 0;
+            String path = null;
+            ImportEntry importEntry;
+            for (int i = 0; i < namePath.length - 1; i++) {
+                path = path == null ? namePath[i] : path + '.' + namePath[i];
+                int ref = findReference(getImportIndex(), addedIndex, path);
+                if (ref == 0) {
+                    importEntry = new ImportEntry(this, getImportTable().size() + added.size(),
                             nameReference("Core"),
                             nameReference("Package"),
                             pckg,
                             nameReference(namePath[i]));
-                    if ((pckg = importTable.indexOf(importEntry)) == -1) {
-                        importTable.add(importEntry);
-                        pckg = importTable.size() - 1;
-                    }
-                    pckg = -(pckg + 1);
+                    added.add(importEntry);
+                    ref = importEntry.getObjectReference();
+                    addedIndex.put(indexKey(path), ref);
                 }
+                pckg = ref;
+            }
 
-                importEntry = new ImportEntry(this, 0,
+            if (force || findReference(getImportIndex(), addedIndex, entry.getKey()) == 0) {
+                importEntry = new ImportEntry(this, getImportTable().size() + added.size(),
                         nameReference(classPath[0]),
                         nameReference(classPath[1]),
                         pckg,
                         nameReference(namePath[namePath.length - 1]));
-                if (force || importTable.indexOf(importEntry) == -1)
-                    importTable.add(importEntry);
+                added.add(importEntry);
+                addedIndex.putIfAbsent(indexKey(entry.getKey()), importEntry.getObjectReference());
             }
-        });
+        }
+        if (added.isEmpty())
+            return;
+
+        TableView<ImportEntry> importTable = this.imports.append(added);
+        if (edit == null)
+            writeImportTableInPlace(importTable);
+        Map<String, Integer> index = importIndex;
+        this.imports = importTable;
+        if (index != null)
+            for (ImportEntry entry : added)
+                index.putIfAbsent(indexKey(entry.getObjectFullName()), entry.getObjectReference());
+    }
+
+    /**
+     * Reference of table entry or of entry added but not yet in table, 0 if none.
+     */
+    private static int findReference(Map<String, Integer> index, Map<String, Integer> added, String name) {
+        String key = indexKey(name);
+        Integer ref = index.get(key);
+        return ref != null ? ref : added.getOrDefault(key, 0);
     }
 
     public void addExportEntry(String objectName, String objectClass, String objectSuperClass, byte[] data, int flags) throws IOException {
@@ -429,61 +559,75 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
                 .forEach(s -> namesToAdd.put(s, PACKAGE_FLAGS));
         addNameEntries(namesToAdd);
 
-        file.setPosition(getDataEndOffset());
-        List<ExportEntry> exportTable = new ArrayList<>(getExportTable());
+        int position = getDataEndOffset();
+        List<ExportEntry> added = new ArrayList<>();
+        Map<String, Integer> addedIndex = new HashMap<>();
         int pckgInd = importReference("Core.Package");
         byte[] pckgData = compactIntToByteArray(nameReference("None"));
 
         int pckg = 0;
+        String path = null;
         ExportEntry exportEntry;
         for (int i = 0; i < namePath.length - 1; i++) {
-            exportEntry = new ExportEntry(this, 0,
-                    pckgInd,
-                    0,
-                    pckg,
-                    nameReference(namePath[i]),
-                    PACKAGE_FLAGS,
-                    pckgData.length, file.getPosition());
-            if ((pckg = exportTable.indexOf(exportEntry)) == -1) {
-                exportTable.add(exportEntry);
-                pckg = exportTable.size() - 1;
-                file.write(pckgData);
+            path = path == null ? namePath[i] : path + '.' + namePath[i];
+            int ref = findReference(getExportIndex(), addedIndex, path);
+            if (ref == 0) {
+                exportEntry = new ExportEntry(this, getExportTable().size() + added.size(),
+                        pckgInd,
+                        0,
+                        pckg,
+                        nameReference(namePath[i]),
+                        PACKAGE_FLAGS,
+                        pckgData.length, position);
+                added.add(exportEntry);
+                ref = exportEntry.getObjectReference();
+                addedIndex.put(indexKey(path), ref);
+                writeData(position, pckgData);
+                position += pckgData.length;
             }
-            pckg++;
+            pckg = ref;
         }
 
-        exportEntry = new ExportEntry(this,
-                0,
-                objectReference(objectClass),
-                objectReference(objectSuperClass),
-                pckg,
-                nameReference(namePath[namePath.length - 1]),
-                flags,
-                data.length, file.getPosition());
-        if (exportTable.indexOf(exportEntry) == -1) {
-            exportTable.add(exportEntry);
-            file.write(data);
+        if (findReference(getExportIndex(), addedIndex, objectName) == 0) {
+            exportEntry = new ExportEntry(this,
+                    getExportTable().size() + added.size(),
+                    objectReference(objectClass),
+                    objectReference(objectSuperClass),
+                    pckg,
+                    nameReference(namePath[namePath.length - 1]),
+                    flags,
+                    data.length, position);
+            added.add(exportEntry);
+            writeData(position, data);
+            position += data.length;
         }
-
-        int nameTablePosition = file.getPosition();
-        writeNameTable(getNameTable());
-        int importTablePosition = file.getPosition();
-        writeImportTable(getImportTable());
-        int exportTablePosition = file.getPosition();
-        writeExportTable(exportTable);
-
-        file.setPosition(NAME_OFFSET_OFFSET);
-        file.writeInt(nameTablePosition);
-        file.setPosition(EXPORT_COUNT_OFFSET);
-        file.writeInt(exportTable.size());
-        file.setPosition(EXPORT_OFFSET_OFFSET);
-        file.writeInt(exportTablePosition);
-        file.setPosition(IMPORT_OFFSET_OFFSET);
-        file.writeInt(importTablePosition);
-
-        readNameTable();
-        readImportTable();
-        readExportTable();
+        if (added.isEmpty())
+            return;
+
+        TableView<ExportEntry> exportTable = exports.append(added);
+        if (edit == null) {
+            file.setPosition(position);
+            int nameTablePosition = file.getPosition();
+            writeNameTable(getNameTable());
+            int importTablePosition = file.getPosition();
+            writeImportTable(getImportTable());
+            int exportTablePosition = file.getPosition();
+            writeExportTable(exportTable);
+
+            file.setPosition(NAME_OFFSET_OFFSET);
+            file.writeInt(nameTablePosition);
+            file.setPosition(EXPORT_COUNT_OFFSET);
+            file.writeInt(exportTable.size());
+            file.setPosition(EXPORT_OFFSET_OFFSET);
+            file.writeInt(exportTablePosition);
+            file.setPosition(IMPORT_OFFSET_OFFSET);
+            file.writeInt(importTablePosition);
+        }
+        Map<String, Integer> index = exportIndex;
+        exports = exportTable;
+        if (index != null)
+            for (ExportEntry entry : added)
+                index.putIfAbsent(indexKey(entry.getObjectInnerFullName()), entry.getObjectReference());
     }
 
 //    public void renameExport(String nameSrc, String nameDst) throws IOException {
@@ -606,43 +750,200 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
         });
     }
 
-    private OutputStream fileOutputStream = new OutputStream() {
+    public boolean isEditing() {
+        return edit != null;
+    }
+
+    /**
+     * Starts edit session. Until {@link #commitEdit()} name, import and export table changes
+     * and object raw data stay in memory, tables and header are written once on commit.
+     * Header fields (version, flags, GUID) are still written immediately.
+     */
+    public void beginEdit() {
+        if (edit != null)
+            throw new IllegalStateException("Edit session already started");
+
+        edit = new Edit();
+    }
+
+    /**
+     * Writes collected data, tables and header. If writing fails, file is restored to its state
+     * before commit and the session stays open.
+     */
+    public void commitEdit() throws IOException {
+        if (edit == null)
+            throw new IllegalStateException("Edit session not started");
+
+        Edit edit = this.edit;
+        this.edit = null;
+
+        int oldLength = file.length();
+        int tablesPosition = getDataEndOffset();
+        List<Map.Entry<Integer, byte[]>> backup = new ArrayList<>();
+        try {
+            backup.add(backup(0, GUID_OFFSET, oldLength));
+            for (Map.Entry<Integer, byte[]> entry : edit.data.entrySet())
+                backup.add(backup(entry.getKey(), entry.getValue().length, oldLength));
+            backup.add(backup(tablesPosition, oldLength - tablesPosition, oldLength));
+
+            for (Map.Entry<Integer, byte[]> entry : edit.data.entrySet())
+                writeData(entry.getKey(), entry.getValue());
+
+            file.setPosition(tablesPosition);
+            writeNameTable(getNameTable());
+            int importTablePosition = file.getPosition();
+            writeImportTable(getImportTable());
+            int exportTablePosition = file.getPosition();
+            writeExportTable(getExportTable());
+            file.setLength(file.getPosition());
+
+            file.setPosition(NAME_COUNT_OFFSET);
+            file.writeInt(getNameTable().size());
+            file.writeInt(tablesPosition);
+            file.writeInt(getExportTable().size());
+            file.writeInt(exportTablePosition);
+            file.writeInt(getImportTable().size());
+            file.writeInt(importTablePosition);
+        } catch (IOException | RuntimeException e) {
+            try {
+                for (int i = backup.size() - 1; i >= 0; i--)
+                    writeData(backup.get(i).getKey(), backup.get(i).getValue());
+                file.setLength(oldLength);
+            } catch (IOException | RuntimeException restoreException) {
+                e.addSuppressed(restoreException);
+            }
+            this.edit = edit;
+            throw e;
+        }
+
+        readNameTable();
+        readImportTable();
+        readExportTable();
+    }
+
+    /**
+     * Drops changes collected since {@link #beginEdit()}, tables are reread from file.
+     */
+    public void rollbackEdit() throws IOException {
+        if (edit == null)
+            throw new IllegalStateException("Edit session not started");
+
+        edit = null;
+
+        readNameTable();
+        readImportTable();
+        readExportTable();
+    }
+
+    private Map.Entry<Integer, byte[]> backup(int offset, int length, int fileLength) throws IOException {
+        byte[] data = new byte[Math.max(Math.min(length, fileLength - offset), 0)];
+        file.readAt(offset, data, 0, data.length);
+        return new AbstractMap.SimpleImmutableEntry<>(offset, data);
+    }
+
+    private void writeData(int offset, byte[] data) throws IOException {
+        if (edit != null) {
+            if (data.length > 0) {
+                edit.data.put(offset, data.clone());
+                if (edit.dataEnd > 0)
+                    edit.dataEnd = Math.max(edit.dataEnd, offset + data.length);
+            }
+            return;
+        }
+
+        file.setPosition(offset);
+        file.write(data);
+    }
+
+    private void readData(RandomAccessFile source, int offset, byte[] data) throws IOException {
+        Edit edit = this.edit;
+        byte[] pending = edit != null ? edit.data.get(offset) : null;
+        if (pending != null && pending.length >= data.length)
+            System.arraycopy(pending, 0, data, 0, data.length);
+        else
+            source.readAt(offset, data, 0, data.length);
+    }
+
+    private static final class Edit {
+        private final NavigableMap<Integer, byte[]> data = new TreeMap<>();
+        /**
+         * {@link #getDataEndOffset()} of the session, 0 until computed. Exports only grow at the end
+         * while editing, shrunk export resets it.
+         */
+        private int dataEnd;
+    }
+
+    /**
+     * Unmodifiable view of the first size entries of a list that is only appended to. Edit session
+     * adds entries without copying the table, views returned before don't change.
+     */
+    private static final class TableView<E> extends AbstractList<E> implements RandomAccess {
+        private final List<E> entries;
+        private final int size;
+
+        TableView(List<E> entries) {
+            this.entries = entries;
+            this.size = entries.size();
+        }
+
         @Override
-        public void write(int b) throws IOException {
-            file.write(b);
+        public E get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            return entries.get(index);
         }
 
         @Override
-        public void write(byte[] b, int off, int len) throws IOException {
-            file.write(b, off, len);
+        public int size() {
+            return size;
         }
-    };
+
+        TableView<E> append(Collection<? extends E> added) {
+            List<E> list = entries;
+            if (list.size() != size)
+                list = new ArrayList<>(list.subList(0, size));
+            list.addAll(added);
+            return new TableView<>(list);
+        }
+    }
 
     private void writeNameTable(List<NameEntry> nameTable) throws IOException {
+        file.write(nameTableToByteArray(nameTable, file.getCharset()));
+    }
+
+    private void writeImportTable(List<ImportEntry> importTable) throws IOException {
+        file.write(importTableToByteArray(importTable, file.getCharset()));
+    }
+
+    private void writeExportTable(List<ExportEntry> exportTable) throws IOException {
+        file.write(exportTableToByteArray(exportTable, file.getCharset()));
+    }
+
+    private static byte[] nameTableToByteArray(List<NameEntry> nameTable, Charset charset) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutput buffer = new DataOutputStream(baos, file.getCharset());
+        DataOutput buffer = new DataOutputStream(baos, charset);
         for (NameEntry entry : nameTable) {
             buffer.writeLine(entry.getName());
             buffer.writeInt(entry.getFlags());
         }
-        baos.writeTo(fileOutputStream);
+        return baos.toByteArray();
     }
 
-    private void writeImportTable(List<ImportEntry> importTable) throws IOException {
+    private static byte[] importTableToByteArray(List<ImportEntry> importTable, Charset charset) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutput buffer = new DataOutputStream(baos, file.getCharset());
+        DataOutput buffer = new DataOutputStream(baos, charset);
         for (ImportEntry entry : importTable) {
             buffer.writeCompactInt(entry.classPackage);
             buffer.writeCompactInt(entry.className);
             buffer.writeInt(entry.objectPackage);
             buffer.writeCompactInt(entry.objectName);
         }
-        baos.writeTo(fileOutputStream);
+        return baos.toByteArray();
     }
 
-    private void writeExportTable(List<ExportEntry> exportTable) throws IOException {
+    private static byte[] exportTableToByteArray(List<ExportEntry> exportTable, Charset charset) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutput buffer = new DataOutputStream(baos, file.getCharset());
+        DataOutput buffer = new DataOutputStream(baos, charset);
         for (ExportEntry entry : exportTable) {
             buffer.writeCompactInt(entry.objectClass);
             buffer.writeCompactInt(entry.objectSuperClass);
@@ -652,22 +953,109 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
             buffer.writeCompactInt(entry.size);
             buffer.writeCompactInt(entry.offset);
         }
-        baos.writeTo(fileOutputStream);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Writes compacted copy of this package to target: header, name, import and export tables,
+     * then object data in file order without gaps and abandoned regions.
+     * Target gets the same crypt version, object data is copied with {@link RandomAccessFile#transferTo}.
+     */
+    public void saveCompacted(File target) throws IOException {
+        if (edit != null)
+            throw new IllegalStateException("Edit session is not finished");
+        if (target.exists() && target.getCanonicalFile().equals(new File(getFilePath()).getCanonicalFile()))
+            throw new IllegalArgumentException("Can't save package over itself");
+
+        RandomAccessFile source = getExternalFile();
+
+        try {
+            try (OutputStream os = new java.io.FileOutputStream(target)) {
+                if (source.getCryptVersion() != 0)
+                    os.write(("Lineage2Ver" + source.getCryptVersion()).getBytes(Charset.forName("utf-16le")));
+            }
+
+            try (RandomAccessFile out = new RandomAccessFile(target, false, getCharset())) {
+                byte[] header = new byte[GENERATIONS_OFFSET + 4 + getGenerations().size() * 8];
+                source.readAt(0, header, 0, header.length);
+                out.write(header);
+
+                int nameTablePosition = out.getPosition();
+                out.write(nameTableToByteArray(getNameTable(), getCharset()));
+                int importTablePosition = out.getPosition();
+                out.write(importTableToByteArray(getImportTable(), getCharset()));
+                int exportTablePosition = out.getPosition();
+
+                List<ExportEntry> byOffset = new ArrayList<>(getExportTable());
+                byOffset.sort(Comparator.comparingInt(ExportEntry::getOffset));
+
+                List<ExportEntry> exportTable = new ArrayList<>(getExportTable());
+                byte[] exportTableBytes = new byte[0];
+                int exportTableSize;
+                do {
+                    exportTableSize = exportTableBytes.length;
+                    int position = exportTablePosition + exportTableSize;
+                    Map<ExportEntry, Integer> offsets = new IdentityHashMap<>();
+                    for (ExportEntry entry : byOffset) {
+                        offsets.put(entry, position);
+                        position += entry.getSize();
+                    }
+                    for (int i = 0; i < exportTable.size(); i++) {
+                        ExportEntry entry = getExportTable().get(i);
+                        exportTable.set(i, new ExportEntry(this, i, entry.objectClass, entry.objectSuperClass, entry.objectPackage, entry.objectName, entry.objectFlags, entry.size, offsets.get(entry)));
+                    }
+                    exportTableBytes = exportTableToByteArray(exportTable, getCharset());
+                } while (exportTableBytes.length != exportTableSize);
+                out.write(exportTableBytes);
+
+                int runOffset = 0;
+                int runSize = 0;
+                for (ExportEntry entry : byOffset) {
+                    if (entry.getSize() == 0)
+                        continue;
+
+                    if (runSize > 0 && entry.getOffset() == runOffset + runSize) {
+                        runSize += entry.getSize();
+                        continue;
+                    }
+
+                    if (runSize > 0)
+                        source.transferTo(runOffset, runSize, out);
+                    runOffset = entry.getOffset();
+                    runSize = entry.getSize();
+                }
+                if (runSize > 0)
+                    source.transferTo(runOffset, runSize, out);
+
+                out.setPosition(NAME_COUNT_OFFSET);
+                out.writeInt(getNameTable().size());
+                out.writeInt(nameTablePosition);
+                out.writeInt(exportTable.size());
+                out.writeInt(exportTablePosition);
+                out.writeInt(getImportTable().size());
+                out.writeInt(importTablePosition);
+            }
+        } finally {
+            releaseExternalFile(source);
+        }
     }
 
     public int getNameTableOffset() throws IOException {
-        file.setPosition(NAME_OFFSET_OFFSET);
-        return file.readInt();
+        return readHeaderInt(NAME_OFFSET_OFFSET);
     }
 
     public int getExportTableOffset() throws IOException {
-        file.setPosition(EXPORT_OFFSET_OFFSET);
-        return file.readInt();
+        return readHeaderInt(EXPORT_OFFSET_OFFSET);
     }
 
     public int getImportTableOffset() throws IOException {
-        file.setPosition(IMPORT_OFFSET_OFFSET);
-        return file.readInt();
+        return readHeaderInt(IMPORT_OFFSET_OFFSET);
+    }
+
+    private int readHeaderInt(int offset) throws IOException {
+        byte[] b = new byte[4];
+        file.readAt(offset, b, 0, b.length);
+        return (b[0] & 0xff) | ((b[1] & 0xff) << 8) | ((b[2] & 0xff) << 16) | ((b[3] & 0xff) << 24);
     }
 
     public int getDataStartOffset() {
@@ -679,11 +1067,35 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
     }
 
     public int getDataEndOffset() {
-        return getExportTable().stream()
+        Edit edit = this.edit;
+        if (edit != null && edit.dataEnd > 0)
+            return edit.dataEnd;
+
+        int dataEnd = getExportTable().stream()
                 .filter(entry -> entry.getSize() > 0)
                 .mapToInt(entry -> entry.getOffset() + entry.getSize())
                 .max()
                 .orElseThrow(() -> new IllegalStateException("Data block is empty"));
+        if (edit != null)
+            edit.dataEnd = dataEnd;
+        return dataEnd;
+    }
+
+    /**
+     * Returns file suitable for {@link RandomAccessFile#readAt} and {@link RandomAccessFile#getBuffer},
+     * give it back with {@link #releaseExternalFile}.
+     * Closed package reopens its file read only and not mapped per call, so nothing holds the file after close.
+     */
+    private RandomAccessFile getExternalFile() throws IOException {
+        if (file.isOpen())
+            return file;
+
+        return new RandomAccessFile(new File(file.getPath()), true, false, file.getCharset());
+    }
+
+    private void releaseExternalFile(RandomAccessFile source) throws IOException {
+        if (source != file)
+            source.close();
     }
 
     @Override
@@ -914,8 +1326,7 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
                 return new byte[0];
 
             byte[] raw = new byte[size];
-            getUnrealPackage().file.setPosition(offset);
-            getUnrealPackage().file.readFully(raw);
+            getUnrealPackage().readData(getUnrealPackage().file, offset, raw);
             return raw;
         }
 
@@ -924,11 +1335,26 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
             if (getSize() == 0)
                 return new byte[0];
 
-            try (RandomAccessFile raf = new RandomAccessFile(getUnrealPackage().file.getPath(), true, getUnrealPackage().file.getCharset())) {
-                byte[] data = new byte[getSize()];
-                raf.setPosition(getOffset());
-                raf.readFully(data);
-                return data;
+            byte[] data = new byte[getSize()];
+            RandomAccessFile source = getUnrealPackage().getExternalFile();
+            try {
+                getUnrealPackage().readData(source, getOffset(), data);
+            } finally {
+                getUnrealPackage().releaseExternalFile(source);
+            }
+            return data;
+        }
+
+        @Override
+        public ByteBuffer getObjectRawDataBuffer() throws IOException {
+            if (getUnrealPackage().edit != null)
+                return ByteBuffer.wrap(getObjectRawData()).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+
+            RandomAccessFile source = getUnrealPackage().getExternalFile();
+            try {
+                return source.getBuffer(getOffset(), getSize());
+            } finally {
+                getUnrealPackage().releaseExternalFile(source);
             }
         }
 
@@ -938,12 +1364,13 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
 
         public void setObjectRawData(byte[] data, boolean writeExportTable) throws IOException {
             if (data.length <= getSize()) {
-                getUnrealPackage().file.setPosition(getOffset());
-                getUnrealPackage().file.write(data);
+                getUnrealPackage().writeData(getOffset(), data);
                 if (data.length != getSize()) {
                     size = data.length;
+                    if (getUnrealPackage().edit != null)
+                        getUnrealPackage().edit.dataEnd = 0;
 
-                    if (writeExportTable) {
+                    if (writeExportTable && getUnrealPackage().edit == null) {
                         getUnrealPackage().file.setPosition(getUnrealPackage().getExportTableOffset());
                         getUnrealPackage().writeExportTable(getUnrealPackage().getExportTable());
                     }
@@ -953,10 +1380,11 @@ public class UnrealPackageFile implements UnrealPackageReadOnly, Closeable {
 //                getUnrealPackage().file.setPosition(getOffset());
 //                getUnrealPackage().file.write(new byte[getSize()]);
 
-                getUnrealPackage().file.setPosition(getUnrealPackage().getDataEndOffset());
-                offset = getUnrealPackage().file.getPosition();
+                offset = getUnrealPackage().getDataEndOffset();
                 size = data.length;
-                getUnrealPackage().file.write(data);
+                getUnrealPackage().writeData(offset, data);
+                if (getUnrealPackage().edit != null)
+                    return;
 
                 int nameTablePosition = getUnrealPackage().file.getPosition();
                 getUnrealPackage().writeNameTable(getUnrealPackage().getNameTable());
@@ -22,6 +22,7 @@
 package acmi.l2.clientmod.io;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Collection;
@@ -115,6 +116,16 @@ public interface UnrealPackageReadOnly {
 
         byte[] getObjectRawDataExternally() throws IOException;
 
+        /**
+         * Same as {@link #getObjectRawDataExternally()}, but implementation
+         * may return a view of package data instead of a copy.
+         *
+         * @return read only buffer, position 0, limit {@link #getSize()}
+         */
+        default ByteBuffer getObjectRawDataBuffer() throws IOException {
+            return ByteBuffer.wrap(getObjectRawDataExternally()).asReadOnlyBuffer();
+        }
+
         @Override
         default String getObjectFullName(){
             return getUnrealPackage().getPackageName() + "." + getObjectInnerFullName();
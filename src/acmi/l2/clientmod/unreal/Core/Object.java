@@ -40,9 +40,16 @@ public class Object {
 
     private StateFrame stateFrame;
 
+    /**
+     * @param propertiesUtil null if input is data of a field cached without state frame and properties,
+     *                       see {@link acmi.l2.clientmod.unreal.classloader.UnrealClassLoader}
+     */
     public Object(DataInput input, UnrealPackageReadOnly.ExportEntry entry, PropertiesUtil propertiesUtil) throws IOException {
         this.entry = entry;
 
+        if (propertiesUtil == null)
+            return;
+
         if (getFlags(this.entry.getObjectFlags()).contains(HasStack)) {
             stateFrame = StateFrame.read(input);
         }
@@ -21,6 +21,7 @@
  */
 package acmi.l2.clientmod.unreal.core;
 
+import acmi.l2.clientmod.io.ByteBufferDataInput;
 import acmi.l2.clientmod.io.DataInput;
 import acmi.l2.clientmod.io.UnrealPackageReadOnly;
 import acmi.l2.clientmod.unreal.bytecode.BytecodeUtil;
@@ -28,6 +29,9 @@ import acmi.l2.clientmod.unreal.bytecode.token.Token;
 import acmi.l2.clientmod.unreal.classloader.PropertiesUtil;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.List;
 import java.util.logging.Logger;
@@ -35,13 +39,28 @@ import java.util.logging.Logger;
 public class Struct extends Field {
     private static Logger log = Logger.getLogger(Struct.class.getName());
 
+    /**
+     * eager - script is read in constructor, lazy (default) - on first {@link #getScript()} call,
+     * skip - script is not read, {@link #getScript()} returns empty list.
+     * Lazy and skip modes apply to Struct, State and Function read from {@link ByteBufferDataInput}:
+     * their script length is found by the fixed size of following data.
+     */
+    private static final String SCRIPT_MODE = System.getProperty(Struct.class.getName() + ".script", "lazy");
+
+    private static final int STATE_TAIL = 22;
+    private static final int FUNCTION_TAIL = 7;
+    private static final int NET_FUNCTION_TAIL = 9;
+
     public final int scriptText;
     public final int child;
     public final int friendlyName;
     public final int line;
     public final int textPos;
     public final int scriptSize;
-    private final List<Token> script;
+    private volatile List<Token> script;
+    private byte[] scriptData;
+    private int scriptOffset;
+    private Charset charset;
 
     public Struct(DataInput input, UnrealPackageReadOnly.ExportEntry entry, PropertiesUtil propertiesUtil) throws IOException {
         super(input, entry, propertiesUtil);
@@ -54,9 +73,46 @@ public class Struct extends Field {
         textPos = input.readInt();
         scriptSize = input.readInt();
         log.fine(entry::getObjectFullName);
-        script = scriptSize > 0 ?
-                new BytecodeUtil(entry.getUnrealPackage().nameReference("None")).readTokens(input, scriptSize) :
-                Collections.emptyList();
+
+        int scriptLength = scriptSize > 0 && !"eager".equals(SCRIPT_MODE) ? scriptLength(input) : -1;
+        if (scriptSize == 0) {
+            script = Collections.emptyList();
+        } else if (scriptLength < 0) {
+            script = new BytecodeUtil(entry.getUnrealPackage().nameReference("None")).readTokens(input, scriptSize);
+        } else if ("skip".equals(SCRIPT_MODE)) {
+            input.skip(scriptLength);
+            script = Collections.emptyList();
+        } else {
+            scriptOffset = input.getPosition();
+            scriptData = new byte[scriptLength];
+            input.readFully(scriptData);
+            charset = input.getCharset();
+        }
+    }
+
+    /**
+     * @return script length in bytes or -1 if it can't be found without parsing
+     */
+    private int scriptLength(DataInput input) {
+        if (!(input instanceof ByteBufferDataInput))
+            return -1;
+
+        ByteBuffer data = ((ByteBufferDataInput) input).peek();
+        int length = data.remaining();
+        if (getClass() == Struct.class)
+            return length;
+        if (getClass() == State.class)
+            return length >= STATE_TAIL ? length - STATE_TAIL : -1;
+        if (getClass() == Function.class && length >= NET_FUNCTION_TAIL) {
+            // replicated function has replicationOffset after flags;
+            // without it the int at length - 6 starts with native index high byte, which is < 0x40
+            int net = Function.Flag.NET.getMask();
+            if ((data.getInt(length - 6) & net) != 0)
+                return length - NET_FUNCTION_TAIL;
+            if ((data.getInt(length - 4) & net) == 0)
+                return length - FUNCTION_TAIL;
+        }
+        return -1;
     }
 
     public UnrealPackageReadOnly.Entry getScritpText() {
@@ -72,6 +128,23 @@ public class Struct extends Field {
     }
 
     public List<Token> getScript() {
+        List<Token> script = this.script;
+        if (script == null) {
+            synchronized (this) {
+                if (this.script == null) {
+                    try {
+                        ByteBufferDataInput input = new ByteBufferDataInput(ByteBuffer.wrap(scriptData), scriptOffset, charset);
+                        this.script = new BytecodeUtil(getEntry().getUnrealPackage().nameReference("None")).readTokens(input, scriptSize);
+                        if (input.available() > 0)
+                            log.warning(() -> String.format("%s: %d script bytes not read", getEntry(), input.available()));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    scriptData = null;
+                }
+                script = this.script;
+            }
+        }
         return script;
     }
 
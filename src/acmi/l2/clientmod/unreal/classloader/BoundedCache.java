@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2015 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.unreal.classloader;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * Concurrent map limited by total weight of values. When the limit is exceeded entries are evicted
+ * down to 90% of it in CLOCK order: entries are queued in insertion order, an entry read since it was
+ * last passed gets a second chance, so eviction approximates LRU and costs at most two passes.
+ * <p>
+ * Reads are lock-free. {@link #computeIfAbsent} loads a key once, concurrent callers wait for the loading one.
+ * Loads may be recursive, also across caches: a load started inside another load doesn't wait for a key
+ * loaded by another thread (or by itself), it loads the value too and keeps whichever is stored first.
+ */
+final class BoundedCache<K, V> {
+    /**
+     * Number of loads in progress on the current thread, for all caches.
+     */
+    private static final ThreadLocal<int[]> loadDepth = ThreadLocal.withInitial(() -> new int[1]);
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final int weight;
+        /**
+         * Not null while value is being loaded.
+         */
+        final CompletableFuture<V> loading;
+        volatile boolean referenced;
+
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.loading = null;
+        }
+
+        Node(K key) {
+            this.key = key;
+            this.value = null;
+            this.weight = 0;
+            this.loading = new CompletableFuture<>();
+        }
+    }
+
+    private final long maxWeight;
+    private final ToIntBiFunction<K, V> weigher;
+
+    private final Map<K, Node<K, V>> map = new ConcurrentHashMap<>();
+    /**
+     * Stored nodes in CLOCK order, guarded by evictionLock. Replaced nodes are dropped when passed.
+     */
+    private final ArrayDeque<Node<K, V>> clock = new ArrayDeque<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong weight = new AtomicLong();
+    private final Object evictionLock = new Object();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadTime = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxWeight {@link Long#MAX_VALUE} for unbounded
+     */
+    BoundedCache(long maxWeight, ToIntBiFunction<K, V> weigher) {
+        if (maxWeight < 0)
+            throw new IllegalArgumentException("maxWeight < 0");
+
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    BoundedCache(long maxWeight) {
+        this(maxWeight, (k, v) -> 1);
+    }
+
+    private Node<K, V> getNode(K key) {
+        Node<K, V> node = map.get(key);
+        return node != null && node.loading == null ? node : null;
+    }
+
+    /**
+     * Counts hit or miss.
+     */
+    V getIfPresent(K key) {
+        Node<K, V> node = getNode(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        node.referenced = true;
+        return node.value;
+    }
+
+    /**
+     * Doesn't count hit or miss.
+     */
+    V peek(K key) {
+        Node<K, V> node = getNode(key);
+        return node != null ? node.value : null;
+    }
+
+    boolean containsKey(K key) {
+        return getNode(key) != null;
+    }
+
+    /**
+     * Null values are not stored. Value stored by the loader for the key meanwhile is kept and returned.
+     */
+    V computeIfAbsent(K key, Function<K, V> loader) {
+        int[] depth = loadDepth.get();
+        while (true) {
+            Node<K, V> node = map.get(key);
+            if (node != null && node.loading == null)
+                return node.value;
+
+            if (node != null) {
+                if (depth[0] > 0)
+                    return load(key, loader, depth, null);
+                try {
+                    return node.loading.join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    if (e.getCause() instanceof Error)
+                        throw (Error) e.getCause();
+                    throw e;
+                }
+            }
+
+            Node<K, V> loading = new Node<>(key);
+            if (map.putIfAbsent(key, loading) == null)
+                return load(key, loader, depth, loading);
+        }
+    }
+
+    private V load(K key, Function<K, V> loader, int[] depth, Node<K, V> loading) {
+        V value;
+        long start = System.nanoTime();
+        depth[0]++;
+        try {
+            value = loader.apply(key);
+        } catch (RuntimeException | Error e) {
+            if (loading != null) {
+                map.remove(key, loading);
+                loading.loading.completeExceptionally(e);
+            }
+            throw e;
+        } finally {
+            depth[0]--;
+            loadTime.add(System.nanoTime() - start);
+            loads.increment();
+        }
+
+        if (value == null) {
+            if (loading != null) {
+                map.remove(key, loading);
+                loading.loading.complete(null);
+            }
+            return null;
+        }
+
+        Node<K, V> node = new Node<>(key, value, weigher.applyAsInt(key, value));
+        Node<K, V> stored = loading != null && map.replace(key, loading, node) ? node : putIfAbsent(node);
+        if (stored == node)
+            added(node, null);
+        if (loading != null)
+            loading.loading.complete(stored.value);
+        return stored.value;
+    }
+
+    /**
+     * @return stored node, not a loading one
+     */
+    private Node<K, V> putIfAbsent(Node<K, V> node) {
+        while (true) {
+            Node<K, V> old = map.putIfAbsent(node.key, node);
+            if (old == null)
+                return node;
+            if (old.loading == null)
+                return old;
+            if (map.replace(node.key, old, node))
+                return node;
+        }
+    }
+
+    void put(K key, V value) {
+        Node<K, V> node = new Node<>(key, value, weigher.applyAsInt(key, value));
+        added(node, map.put(key, node));
+    }
+
+    void putIfAbsent(K key, V value) {
+        Node<K, V> node = new Node<>(key, value, weigher.applyAsInt(key, value));
+        if (map.putIfAbsent(key, node) == null)
+            added(node, null);
+    }
+
+    private void added(Node<K, V> node, Node<K, V> old) {
+        if (maxWeight != Long.MAX_VALUE)
+            synchronized (evictionLock) {
+                clock.add(node);
+            }
+        if (old == null || old.loading != null)
+            size.incrementAndGet();
+        weight.addAndGet(node.weight - (old != null ? old.weight : 0));
+        evictIfNeeded();
+    }
+
+    private void evictIfNeeded() {
+        if (weight.get() <= maxWeight)
+            return;
+
+        synchronized (evictionLock) {
+            long target = maxWeight - maxWeight / 10;
+            // second pass evicts every node left from the first one
+            for (int passes = 2 * clock.size(); passes > 0 && weight.get() > target; passes--) {
+                Node<K, V> node = clock.poll();
+                if (node == null)
+                    break;
+                if (map.get(node.key) != node)
+                    continue; // replaced or evicted
+
+                if (node.referenced) {
+                    node.referenced = false;
+                    clock.add(node);
+                } else if (map.remove(node.key, node)) {
+                    size.decrementAndGet();
+                    weight.addAndGet(-node.weight);
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), loads.sum(), loadTime.sum(), evictions.sum(), size.get(), weight.get());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2015 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.unreal.classloader;
+
+/**
+ * Maximum weights of {@link UnrealClassLoader} caches, names are the keys of {@link UnrealClassLoader#getCacheStats()}.
+ * Weight of a struct property list or a property template is its size + 1, of other entries 1.
+ * <p>
+ * Limits not set are taken from system property
+ * {@code acmi.l2.clientmod.unreal.classloader.UnrealClassLoader.maxCacheWeight} (unlimited by default).
+ */
+public final class CacheLimits {
+    static final long DEFAULT = Long.getLong(UnrealClassLoader.class.getName() + ".maxCacheWeight", Long.MAX_VALUE);
+
+    private final long struct;
+    private final long property;
+    private final long structProperties;
+    private final long nativeFunction;
+    private final long isSubclass;
+    private final long propertyTemplate;
+
+    private CacheLimits(Builder builder) {
+        this.struct = builder.struct;
+        this.property = builder.property;
+        this.structProperties = builder.structProperties;
+        this.nativeFunction = builder.nativeFunction;
+        this.isSubclass = builder.isSubclass;
+        this.propertyTemplate = builder.propertyTemplate;
+    }
+
+    public static CacheLimits defaults() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public long getStruct() {
+        return struct;
+    }
+
+    public long getProperty() {
+        return property;
+    }
+
+    public long getStructProperties() {
+        return structProperties;
+    }
+
+    public long getNativeFunction() {
+        return nativeFunction;
+    }
+
+    public long getIsSubclass() {
+        return isSubclass;
+    }
+
+    public long getPropertyTemplate() {
+        return propertyTemplate;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheLimits{" +
+                "struct=" + struct +
+                ", property=" + property +
+                ", structProperties=" + structProperties +
+                ", nativeFunction=" + nativeFunction +
+                ", isSubclass=" + isSubclass +
+                ", propertyTemplate=" + propertyTemplate +
+                '}';
+    }
+
+    public static final class Builder {
+        private long struct = DEFAULT;
+        private long property = DEFAULT;
+        private long structProperties = DEFAULT;
+        private long nativeFunction = DEFAULT;
+        private long isSubclass = DEFAULT;
+        private long propertyTemplate = DEFAULT;
+
+        private Builder() {
+        }
+
+        private static long check(long maxWeight) {
+            if (maxWeight < 0)
+                throw new IllegalArgumentException("maxWeight < 0");
+            return maxWeight;
+        }
+
+        /**
+         * Sets all limits.
+         */
+        public Builder all(long maxWeight) {
+            check(maxWeight);
+            struct = property = structProperties = nativeFunction = isSubclass = propertyTemplate = maxWeight;
+            return this;
+        }
+
+        public Builder struct(long maxWeight) {
+            struct = check(maxWeight);
+            return this;
+        }
+
+        public Builder property(long maxWeight) {
+            property = check(maxWeight);
+            return this;
+        }
+
+        public Builder structProperties(long maxWeight) {
+            structProperties = check(maxWeight);
+            return this;
+        }
+
+        public Builder nativeFunction(long maxWeight) {
+            nativeFunction = check(maxWeight);
+            return this;
+        }
+
+        public Builder isSubclass(long maxWeight) {
+            isSubclass = check(maxWeight);
+            return this;
+        }
+
+        public Builder propertyTemplate(long maxWeight) {
+            propertyTemplate = check(maxWeight);
+            return this;
+        }
+
+        public CacheLimits build() {
+            return new CacheLimits(this);
+        }
+    }
+}
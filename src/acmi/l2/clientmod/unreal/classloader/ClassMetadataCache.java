@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2015 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.unreal.classloader;
+
+import acmi.l2.clientmod.io.ByteBufferDataInput;
+import acmi.l2.clientmod.io.DataInput;
+import acmi.l2.clientmod.io.DataOutput;
+import acmi.l2.clientmod.io.DataOutputStream;
+import acmi.l2.clientmod.io.UnrealPackageFile;
+import acmi.l2.clientmod.io.UnrealPackageReadOnly;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static acmi.l2.clientmod.io.ByteUtil.uuidFromBytes;
+import static acmi.l2.clientmod.io.ByteUtil.uuidToBytes;
+
+/**
+ * Struct layouts resolved by {@link UnrealClassLoader}: properties of each struct and native functions
+ * among its children. Entries of a package are valid while its path, size, modification time and GUID are the same.
+ * <p>
+ * A property is stored with its export reference and field data (flags, array dimension, struct, enum, inner and
+ * class references as serialized after its empty properties), so it is created without reading its export.
+ * Properties with a state frame or properties of their own are stored by name only and read from the package.
+ * <p>
+ * Thread-safe, methods are synchronized.
+ */
+final class ClassMetadataCache {
+    private static final Logger log = Logger.getLogger(ClassMetadataCache.class.getName());
+
+    private static final int MAGIC = 0x43434C55;
+    private static final int FORMAT_VERSION = 2;
+
+    private final File file;
+    private final Map<String, PackageInfo> packages = new HashMap<>();
+    private final Map<UnrealPackageReadOnly, PackageInfo> resolved = new WeakHashMap<>();
+    private boolean modified;
+    private long hits;
+    private long misses;
+
+    static final class StructInfo {
+        final List<PropertyInfo> properties;
+        final Map<Integer, String> nativeFunctions;
+
+        StructInfo(List<PropertyInfo> properties, Map<Integer, String> nativeFunctions) {
+            this.properties = properties;
+            this.nativeFunctions = nativeFunctions;
+        }
+    }
+
+    static final class PropertyInfo {
+        private static final byte[] NO_DATA = new byte[0];
+
+        final String name;
+        /**
+         * Export reference in the struct package, 0 if the property is read by name.
+         */
+        final int reference;
+        final byte[] data;
+
+        PropertyInfo(String name, int reference, byte[] data) {
+            this.name = name;
+            this.reference = reference;
+            this.data = data;
+        }
+
+        PropertyInfo(String name) {
+            this(name, 0, NO_DATA);
+        }
+    }
+
+    private static final class PackageInfo {
+        final String path;
+        final long size;
+        final long lastModified;
+        final UUID uuid;
+        final Map<String, StructInfo> structs = new HashMap<>();
+
+        PackageInfo(String path, long size, long lastModified, UUID uuid) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.uuid = uuid;
+        }
+
+        boolean matches(PackageInfo info) {
+            return path.equals(info.path) &&
+                    size == info.size &&
+                    lastModified == info.lastModified &&
+                    uuid.equals(info.uuid);
+        }
+    }
+
+    /**
+     * Reads file if it exists, unreadable file is ignored and overwritten by {@link #save()}.
+     */
+    ClassMetadataCache(File file) {
+        this.file = Objects.requireNonNull(file);
+
+        if (!file.isFile())
+            return;
+
+        try {
+            read(new ByteBufferDataInput(ByteBuffer.wrap(Files.readAllBytes(file.toPath())), null));
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.WARNING, e, () -> "Couldn't read class metadata cache " + file);
+            packages.clear();
+        }
+    }
+
+    private void read(DataInput input) throws IOException {
+        if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION)
+            throw new IOException("Unsupported format");
+
+        int packageCount = input.readInt();
+        for (int i = 0; i < packageCount; i++) {
+            String path = input.readUTF();
+            long size = input.readLong();
+            long lastModified = input.readLong();
+            byte[] uuid = new byte[16];
+            input.readFully(uuid);
+            PackageInfo packageInfo = new PackageInfo(path, size, lastModified, uuidFromBytes(uuid));
+
+            int structCount = input.readInt();
+            for (int j = 0; j < structCount; j++) {
+                String struct = input.readUTF();
+                int propertyCount = input.readInt();
+                List<PropertyInfo> properties = new ArrayList<>(propertyCount);
+                for (int k = 0; k < propertyCount; k++) {
+                    String name = input.readUTF();
+                    int reference = input.readInt();
+                    byte[] data = new byte[input.readInt()];
+                    input.readFully(data);
+                    properties.add(new PropertyInfo(name, reference, data));
+                }
+                int nativeCount = input.readInt();
+                Map<Integer, String> nativeFunctions = new HashMap<>();
+                for (int k = 0; k < nativeCount; k++)
+                    nativeFunctions.put(input.readInt(), input.readUTF());
+                packageInfo.structs.put(struct, new StructInfo(properties, nativeFunctions));
+            }
+            packages.put(path, packageInfo);
+        }
+    }
+
+    /**
+     * @return null if struct is not cached or its package was changed
+     */
+    synchronized StructInfo get(UnrealPackageReadOnly.ExportEntry struct) {
+        PackageInfo current = resolve(struct.getUnrealPackage());
+        if (current == null)
+            return null;
+
+        PackageInfo cached = packages.get(current.path);
+        StructInfo info = cached != null && cached.matches(current) ? cached.structs.get(struct.getObjectFullName()) : null;
+        if (info != null)
+            hits++;
+        else
+            misses++;
+        return info;
+    }
+
+    synchronized void put(UnrealPackageReadOnly.ExportEntry struct, StructInfo info) {
+        PackageInfo current = resolve(struct.getUnrealPackage());
+        if (current == null)
+            return;
+
+        PackageInfo cached = packages.get(current.path);
+        if (cached == null || !cached.matches(current)) {
+            cached = new PackageInfo(current.path, current.size, current.lastModified, current.uuid);
+            packages.put(cached.path, cached);
+        }
+        cached.structs.put(struct.getObjectFullName(), info);
+        modified = true;
+    }
+
+    /**
+     * Only {@link UnrealPackageFile}s are cached.
+     */
+    private PackageInfo resolve(UnrealPackageReadOnly up) {
+        return resolved.computeIfAbsent(up, p -> {
+            if (!(p instanceof UnrealPackageFile))
+                return null;
+
+            UnrealPackageFile upf = (UnrealPackageFile) p;
+            File packageFile = new File(upf.getFilePath());
+            try {
+                packageFile = packageFile.getCanonicalFile();
+            } catch (IOException ignore) {
+            }
+            return new PackageInfo(packageFile.getPath(), packageFile.length(), packageFile.lastModified(), upf.getUUID());
+        });
+    }
+
+    /**
+     * Size is the number of open packages resolved, weight the number of structs stored.
+     */
+    synchronized CacheStats stats() {
+        long structs = packages.values().stream().mapToLong(p -> p.structs.size()).sum();
+        return new CacheStats(hits, misses, 0, 0, 0, resolved.size(), structs);
+    }
+
+    /**
+     * Writes cache if anything was added, file is replaced atomically if possible.
+     */
+    synchronized void save() throws IOException {
+        if (!modified)
+            return;
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null)
+            Files.createDirectories(dir.toPath());
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (OutputStream os = new BufferedOutputStream(new java.io.FileOutputStream(tmp))) {
+                write(new DataOutputStream(os, null));
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+        modified = false;
+    }
+
+    private void write(DataOutput output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(FORMAT_VERSION);
+        output.writeInt(packages.size());
+        for (PackageInfo packageInfo : packages.values()) {
+            writeString(output, packageInfo.path);
+            output.writeLong(packageInfo.size);
+            output.writeLong(packageInfo.lastModified);
+            output.write(uuidToBytes(packageInfo.uuid));
+            output.writeInt(packageInfo.structs.size());
+            for (Map.Entry<String, StructInfo> struct : packageInfo.structs.entrySet()) {
+                writeString(output, struct.getKey());
+                output.writeInt(struct.getValue().properties.size());
+                for (PropertyInfo property : struct.getValue().properties) {
+                    writeString(output, property.name);
+                    output.writeInt(property.reference);
+                    output.writeInt(property.data.length);
+                    output.write(property.data);
+                }
+                output.writeInt(struct.getValue().nativeFunctions.size());
+                for (Map.Entry<Integer, String> function : struct.getValue().nativeFunctions.entrySet()) {
+                    output.writeInt(function.getKey());
+                    writeString(output, function.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Length in chars as expected by {@link DataInput#readUTF()}.
+     */
+    private static void writeString(DataOutput output, String s) throws IOException {
+        output.writeInt(s.length());
+        output.write(s.getBytes(StandardCharsets.UTF_16LE));
+    }
+}
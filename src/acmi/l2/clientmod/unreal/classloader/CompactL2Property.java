@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2015 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.unreal.classloader;
+
+import acmi.l2.clientmod.unreal.core.*;
+
+import java.lang.Object;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Plain Java property. Byte, Int, Bool, Float, Object and Name values are kept in primitive arrays,
+ * unset elements are tracked in a bit mask and read as null.
+ */
+public final class CompactL2Property implements L2Property {
+    private static final int OBJECT = 0;
+    private static final int BYTE = 1;
+    private static final int INT = 2;
+    private static final int BOOL = 3;
+    private static final int FLOAT = 4;
+
+    private final Property template;
+    private final int storage;
+    private final int size;
+
+    private byte[] bytes;
+    private int[] ints;
+    private float[] floats;
+    private Object[] objects;
+
+    /**
+     * Set flags of primitive elements 0..63, elements from 64 use {@link #setHigh}.
+     */
+    private long set;
+    private long[] setHigh;
+
+    public CompactL2Property(Property template) {
+        this.template = template;
+        this.size = template.arrayDimension;
+
+        if (template instanceof ByteProperty) {
+            storage = BYTE;
+            bytes = new byte[size];
+        } else if (template instanceof IntProperty ||
+                template instanceof ObjectProperty ||
+                template instanceof NameProperty) {
+            storage = INT;
+            ints = new int[size];
+        } else if (template instanceof BoolProperty) {
+            storage = BOOL;
+            bytes = new byte[size];
+        } else if (template instanceof FloatProperty) {
+            storage = FLOAT;
+            floats = new float[size];
+        } else {
+            storage = OBJECT;
+            objects = new Object[size];
+        }
+
+        if (storage != OBJECT && size > 64)
+            setHigh = new long[(size - 1) >> 6];
+    }
+
+    @Override
+    public Property getTemplate() {
+        return template;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isSet(int index) {
+        checkIndex(index);
+
+        if (storage == OBJECT)
+            return objects[index] != null;
+        if (index < 64)
+            return (set & (1L << index)) != 0;
+        return (setHigh[(index >> 6) - 1] & (1L << index)) != 0;
+    }
+
+    /**
+     * Byte, Int, Object or Name value without boxing, 0 if not set.
+     */
+    public int getInt(int index) {
+        checkIndex(index);
+
+        switch (storage) {
+            case BYTE:
+                return bytes[index] & 0xff;
+            case INT:
+                return ints[index];
+            default:
+                throw new UnsupportedOperationException(template.getClass().getSimpleName() + " is not integral");
+        }
+    }
+
+    /**
+     * Float value without boxing, 0 if not set.
+     */
+    public float getFloat(int index) {
+        checkIndex(index);
+
+        if (storage != FLOAT)
+            throw new UnsupportedOperationException(template.getClass().getSimpleName() + " is not float");
+        return floats[index];
+    }
+
+    /**
+     * Bool value, false if not set.
+     */
+    public boolean getBoolean(int index) {
+        checkIndex(index);
+
+        if (storage != BOOL)
+            throw new UnsupportedOperationException(template.getClass().getSimpleName() + " is not bool");
+        return bytes[index] != 0;
+    }
+
+    @Override
+    public Object getAt(int index) {
+        if (storage == OBJECT)
+            return objects[index];
+        if (!isSet(index))
+            return null;
+
+        switch (storage) {
+            case BYTE:
+                return bytes[index] & 0xff;
+            case INT:
+                return ints[index];
+            case BOOL:
+                return bytes[index] != 0;
+            default:
+                return floats[index];
+        }
+    }
+
+    @Override
+    public void putAt(int index, Object value) {
+        checkIndex(index);
+
+        switch (storage) {
+            case OBJECT:
+                objects[index] = value;
+                return;
+            case BYTE:
+                if (value != null)
+                    bytes[index] = ((Number) value).byteValue();
+                break;
+            case INT:
+                if (value != null)
+                    ints[index] = ((Number) value).intValue();
+                break;
+            case BOOL:
+                if (value != null)
+                    bytes[index] = (byte) ((Boolean) value ? 1 : 0);
+                break;
+            case FLOAT:
+                if (value != null)
+                    floats[index] = ((Number) value).floatValue();
+                break;
+        }
+        setFlag(index, value != null);
+    }
+
+    private void setFlag(int index, boolean value) {
+        long mask = 1L << index;
+        if (index < 64)
+            set = value ? set | mask : set & ~mask;
+        else if (value)
+            setHigh[(index >> 6) - 1] |= mask;
+        else
+            setHigh[(index >> 6) - 1] &= ~mask;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    @Override
+    public String toString() {
+        return getName() + "=" + (getSize() == 1 ? getAt(0) : IntStream.range(0, getSize())
+                .mapToObj(this::getAt)
+                .map(String::valueOf)
+                .collect(Collectors.joining(", ", "[", "]")));
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2015 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.unreal.classloader;
+
+import acmi.l2.clientmod.unreal.core.Property;
+
+import java.lang.Object;
+import java.util.List;
+
+final class CompactPropertyModel implements PropertyModel {
+    static final CompactPropertyModel INSTANCE = new CompactPropertyModel();
+
+    private CompactPropertyModel() {
+    }
+
+    @Override
+    public L2Property createProperty(Property template) {
+        return new CompactL2Property(template);
+    }
+
+    @Override
+    public List<L2Property> propertyList(List<L2Property> properties) {
+        return properties;
+    }
+
+    @Override
+    public List<Object> arrayList(List<Object> values) {
+        return values;
+    }
+}
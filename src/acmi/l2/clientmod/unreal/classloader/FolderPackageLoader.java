@@ -47,7 +47,7 @@ public final class FolderPackageLoader implements PackageLoader {
     }
 
     @Override
-    public UnrealPackageReadOnly apply(String name) throws UnrealException {
+    public synchronized UnrealPackageReadOnly apply(String name) throws UnrealException {
         if (!uPackages.containsKey(name)) {
             try (UnrealPackageFile up = new UnrealPackageFile(new File(folder, name + ".u"), true, charset)) {
                 uPackages.put(name, up);
@@ -25,14 +25,18 @@ import acmi.l2.clientmod.io.UnrealPackageReadOnly;
 import acmi.l2.clientmod.unreal.UnrealException;
 import acmi.l2.clientmod.unreal.core.*;
 import acmi.l2.clientmod.unreal.core.Enum;
-import javafx.beans.Observable;
 
 import java.lang.Object;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-public interface L2Property extends Observable {
+/**
+ * Property of an object or struct, {@link #getSize()} values of the template's array dimension.
+ *
+ * @see PropertyModel
+ */
+public interface L2Property {
     Property getTemplate();
 
     default String getName() {
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2015 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.unreal.classloader;
+
+import acmi.l2.clientmod.io.UnrealPackageReadOnly;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Index of a package table (export table, name table), built when a package is first used.
+ * <p>
+ * Packages are weakly referenced, so are the indexed tables: table entries refer to their package.
+ * Index is rebuilt when a package replaces the table, the replaced one counts as evicted.
+ * Building is not locked, concurrent first uses of a package may build its index more than once.
+ */
+final class PackageIndex<T extends List<?>, I> {
+    private static final class Node<I> {
+        final Reference<List<?>> table;
+        final I index;
+
+        Node(List<?> table, I index) {
+            this.table = new WeakReference<>(table);
+            this.index = index;
+        }
+    }
+
+    private final Function<T, I> builder;
+    private final ToIntFunction<I> weigher;
+
+    private final Map<UnrealPackageReadOnly, Node<I>> map = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadTime = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    PackageIndex(Function<T, I> builder, ToIntFunction<I> weigher) {
+        this.builder = builder;
+        this.weigher = weigher;
+    }
+
+    /**
+     * @param table current table of the package
+     */
+    I get(UnrealPackageReadOnly up, T table) {
+        Node<I> node = map.get(up);
+        if (node != null && node.table.get() == table) {
+            hits.increment();
+            return node.index;
+        }
+        misses.increment();
+        if (node != null)
+            evictions.increment();
+
+        long start = System.nanoTime();
+        I index = builder.apply(table);
+        loadTime.add(System.nanoTime() - start);
+
+        map.put(up, new Node<>(table, index));
+        return index;
+    }
+
+    /**
+     * Weight is the sum of index weights.
+     */
+    CacheStats stats() {
+        int size;
+        long weight = 0;
+        synchronized (map) {
+            size = map.size();
+            for (Node<I> node : map.values())
+                weight += weigher.applyAsInt(node.index);
+        }
+        long loads = misses.sum();
+        return new CacheStats(hits.sum(), loads, loads, loadTime.sum(), evictions.sum(), size, weight);
+    }
+}
@@ -25,9 +25,6 @@ import acmi.l2.clientmod.io.*;
 import acmi.l2.clientmod.unreal.UnrealException;
 import acmi.l2.clientmod.unreal.core.*;
 import acmi.l2.clientmod.unreal.objectfactory.ObjectFactory;
-import javafx.beans.Observable;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -53,24 +50,56 @@ import java.util.function.Predicate;
  * }
  */
 public class PropertiesUtil {
+    /**
+     * "compact" or "observable", by default observable if JavaFX is available.
+     */
+    private static final String MODEL = System.getProperty(PropertiesUtil.class.getName() + ".model");
+
     private UnrealClassLoader unrealClassLoader;
+    private final PropertyModel model;
 
-    PropertiesUtil(UnrealClassLoader unrealClassLoader) {
+    PropertiesUtil(UnrealClassLoader unrealClassLoader, PropertyModel model) {
         this.unrealClassLoader = unrealClassLoader;
+        this.model = model != null ? model : defaultModel();
+    }
+
+    static PropertyModel defaultModel() {
+        if (MODEL != null) {
+            switch (MODEL) {
+                case "compact":
+                    return PropertyModel.compact();
+                case "observable":
+                    return PropertyModel.observable();
+                default:
+                    throw new IllegalArgumentException("Unknown property model: " + MODEL);
+            }
+        }
+
+        try {
+            Class.forName("javafx.collections.FXCollections", false, PropertiesUtil.class.getClassLoader());
+            return PropertyModel.observable();
+        } catch (ClassNotFoundException e) {
+            return PropertyModel.compact();
+        }
     }
 
     public UnrealClassLoader getUnrealClassLoader() {
         return unrealClassLoader;
     }
 
-    public ObservableList<L2Property> readProperties(DataInput dataInput, String objClass, UnrealPackageReadOnly up) throws UnrealException {
+    public PropertyModel getPropertyModel() {
+        return model;
+    }
+
+    public List<L2Property> readProperties(DataInput dataInput, String objClass, UnrealPackageReadOnly up) throws UnrealException {
         List<L2Property> properties = new ArrayList<>();
 
-        List<Property> classTemplate = unrealClassLoader.getStructProperties(objClass);
+        PropertyTemplate classTemplate = unrealClassLoader.getPropertyTemplate(objClass);
+        Map<Property, L2Property> byTemplate = new IdentityHashMap<>();
 
         try {
-            String name;
-            while (!(name = up.getNameTable().get(dataInput.readCompactInt()).getName()).equals("None")) {
+            int nameIndex;
+            while (!up.getNameTable().get(nameIndex = dataInput.readCompactInt()).getName().equals("None")) {
                 int info = dataInput.readUnsignedByte();
                 int propertyType = info & 0b1111;
                 int sizeType = (info >> 4) & 0b111;
@@ -84,20 +113,14 @@ public class PropertiesUtil {
                 byte[] objBytes = new byte[size];
                 dataInput.readFully(objBytes);
 
-                final String n = name;
-                Predicate<Property> pr = pt -> pt.getEntry().getObjectName().getName().equalsIgnoreCase(n) &&
-                        propertyType == getTypeOfProperty(pt.getClass());
-                L2Property property = properties.stream()
-                        .filter(p -> pr.test(p.getTemplate()))
-                        .findAny()
-                        .orElse(null);
-                if (property == null) {
-                    Property template = classTemplate.stream()
-                            .filter(pr::test)
-                            .findAny()
-                            .orElseThrow(() -> new UnrealException(objClass + ": Property template not found: " + n));
+                Property template = classTemplate.find(unrealClassLoader.getLowerCaseName(up, nameIndex), propertyType);
+                if (template == null)
+                    throw new UnrealException(objClass + ": Property template not found: " + up.getNameTable().get(nameIndex).getName());
 
-                    property = new SimpleL2Property(template);
+                L2Property property = byTemplate.get(template);
+                if (property == null) {
+                    property = model.createProperty(template);
+                    byTemplate.put(template, property);
                     properties.add(property);
                 }
 
@@ -119,7 +142,7 @@ public class PropertiesUtil {
             throw new UnrealException(e);
         }
 
-        return FXCollections.observableList(properties, p -> new Observable[]{p});
+        return model.propertyList(properties);
     }
 
     private static int readPropertySize(int sizeType, DataInput dataInput) throws IOException {
@@ -176,7 +199,7 @@ public class PropertiesUtil {
                 for (int i = 0; i < arraySize; i++) {
                     arrayList.add(read(objBuffer, propertyType, array, arrayInner, structName, up));
                 }
-                return FXCollections.observableList(arrayList);
+                return model.arrayList(arrayList);
             case STRUCT:
                 return readStruct(objBuffer, structName, up);
             case STR:
@@ -186,7 +209,7 @@ public class PropertiesUtil {
         }
     }
 
-    private ObservableList<L2Property> readStruct(DataInput objBuffer, String structName, UnrealPackageReadOnly up) throws IOException {
+    private List<L2Property> readStruct(DataInput objBuffer, String structName, UnrealPackageReadOnly up) throws IOException {
         switch (structName) {
             case "Vector":
                 return readStructBin(objBuffer, "Core.Object.Vector", up);
@@ -199,58 +222,58 @@ public class PropertiesUtil {
         }
     }
 
-    public ObservableList<L2Property> readStructBin(DataInput objBuffer, String structName, UnrealPackageReadOnly up) throws UnrealException {
+    public List<L2Property> readStructBin(DataInput objBuffer, String structName, UnrealPackageReadOnly up) throws UnrealException {
         List<Property> properties = unrealClassLoader.getStructProperties(structName);
 
         try {
             switch (structName) {
                 case "Core.Object.Vector": {
-                    L2Property x = new SimpleL2Property(properties.get(0));
+                    L2Property x = model.createProperty(properties.get(0));
                     x.putAt(0, objBuffer.readFloat());
-                    L2Property y = new SimpleL2Property(properties.get(1));
+                    L2Property y = model.createProperty(properties.get(1));
                     y.putAt(0, objBuffer.readFloat());
-                    L2Property z = new SimpleL2Property(properties.get(2));
+                    L2Property z = model.createProperty(properties.get(2));
                     z.putAt(0, objBuffer.readFloat());
-                    return FXCollections.observableList(new ArrayList<>(Arrays.asList(x, y, z)), p -> new Observable[]{p});
+                    return model.propertyList(new ArrayList<>(Arrays.asList(x, y, z)));
                 }
                 case "Core.Object.Rotator": {
-                    L2Property pitch = new SimpleL2Property(properties.get(0));
+                    L2Property pitch = model.createProperty(properties.get(0));
                     pitch.putAt(0, objBuffer.readInt());
-                    L2Property yaw = new SimpleL2Property(properties.get(1));
+                    L2Property yaw = model.createProperty(properties.get(1));
                     yaw.putAt(0, objBuffer.readInt());
-                    L2Property roll = new SimpleL2Property(properties.get(2));
+                    L2Property roll = model.createProperty(properties.get(2));
                     roll.putAt(0, objBuffer.readInt());
-                    return FXCollections.observableList(new ArrayList<>(Arrays.asList(pitch, yaw, roll)), p -> new Observable[]{p});
+                    return model.propertyList(new ArrayList<>(Arrays.asList(pitch, yaw, roll)));
                 }
                 case "Core.Object.Color": {
-                    L2Property b = new SimpleL2Property(properties.get(0));
+                    L2Property b = model.createProperty(properties.get(0));
                     b.putAt(0, objBuffer.readUnsignedByte());
-                    L2Property g = new SimpleL2Property(properties.get(1));
+                    L2Property g = model.createProperty(properties.get(1));
                     g.putAt(0, objBuffer.readUnsignedByte());
-                    L2Property r = new SimpleL2Property(properties.get(2));
+                    L2Property r = model.createProperty(properties.get(2));
                     r.putAt(0, objBuffer.readUnsignedByte());
-                    L2Property a = new SimpleL2Property(properties.get(3));
+                    L2Property a = model.createProperty(properties.get(3));
                     a.putAt(0, objBuffer.readUnsignedByte());
-                    return FXCollections.observableList(new ArrayList<>(Arrays.asList(b, g, r, a)), p -> new Observable[]{p});
+                    return model.propertyList(new ArrayList<>(Arrays.asList(b, g, r, a)));
                 }
                 case "Fire.FireTexture.Spark": {
-                    L2Property type = new SimpleL2Property(properties.get(0));
+                    L2Property type = model.createProperty(properties.get(0));
                     type.putAt(0, objBuffer.readUnsignedByte());
-                    L2Property heat = new SimpleL2Property(properties.get(1));
+                    L2Property heat = model.createProperty(properties.get(1));
                     heat.putAt(0, objBuffer.readUnsignedByte());
-                    L2Property x = new SimpleL2Property(properties.get(2));
+                    L2Property x = model.createProperty(properties.get(2));
                     x.putAt(0, objBuffer.readUnsignedByte());
-                    L2Property y = new SimpleL2Property(properties.get(3));
+                    L2Property y = model.createProperty(properties.get(3));
                     y.putAt(0, objBuffer.readUnsignedByte());
-                    L2Property byteA = new SimpleL2Property(properties.get(4));
+                    L2Property byteA = model.createProperty(properties.get(4));
                     byteA.putAt(0, objBuffer.readUnsignedByte());
-                    L2Property byteB = new SimpleL2Property(properties.get(5));
+                    L2Property byteB = model.createProperty(properties.get(5));
                     byteB.putAt(0, objBuffer.readUnsignedByte());
-                    L2Property byteC = new SimpleL2Property(properties.get(6));
+                    L2Property byteC = model.createProperty(properties.get(6));
                     byteC.putAt(0, objBuffer.readUnsignedByte());
-                    L2Property byteD = new SimpleL2Property(properties.get(7));
+                    L2Property byteD = model.createProperty(properties.get(7));
                     byteD.putAt(0, objBuffer.readUnsignedByte());
-                    return FXCollections.observableList(new ArrayList<>(Arrays.asList(type, heat, x, y, byteA, byteB, byteC, byteD)), p -> new Observable[]{p});
+                    return model.propertyList(new ArrayList<>(Arrays.asList(type, heat, x, y, byteA, byteB, byteC, byteD)));
                 }
                 default:
                     throw new UnsupportedOperationException("Not implemented"); //TODO
@@ -458,7 +481,7 @@ public class PropertiesUtil {
     private static final int MAP = 0xe;
     private static final int FIXED_ARRAY = 0xf;
 
-    private static int getTypeOfProperty(Class<? extends Property> pClass) {
+    static int getTypeOfProperty(Class<? extends Property> pClass) {
         Objects.requireNonNull(pClass);
 
         if (pClass == ByteProperty.class)
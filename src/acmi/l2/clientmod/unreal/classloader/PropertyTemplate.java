@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015 acmi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package acmi.l2.clientmod.unreal.classloader;
+
+import acmi.l2.clientmod.unreal.core.Property;
+
+import java.util.*;
+
+/**
+ * Properties of a class tree compiled for tag lookup by name and type code.
+ */
+final class PropertyTemplate {
+    private static final Property[] NOT_FOUND = new Property[0];
+
+    private final List<Property> properties;
+    /**
+     * lower case name -> properties by type code, first one in class tree order wins
+     */
+    private final Map<String, Property[]> byName = new HashMap<>();
+
+    PropertyTemplate(List<Property> properties) {
+        this.properties = Collections.unmodifiableList(new ArrayList<>(properties));
+
+        for (Property property : this.properties) {
+            int type;
+            try {
+                type = PropertiesUtil.getTypeOfProperty(property.getClass());
+            } catch (UnsupportedOperationException e) {
+                continue;
+            }
+            Property[] byType = byName.computeIfAbsent(property.getEntry().getObjectName().getName().toLowerCase(Locale.ROOT), k -> new Property[16]);
+            if (byType[type] == null)
+                byType[type] = property;
+        }
+    }
+
+    List<Property> getProperties() {
+        return properties;
+    }
+
+    int size() {
+        return properties.size();
+    }
+
+    /**
+     * @param name lower case property name
+     * @return property or null
+     */
+    Property find(String name, int type) {
+        Property[] byType = byName.getOrDefault(name, NOT_FOUND);
+        return type < byType.length ? byType[type] : null;
+    }
+}
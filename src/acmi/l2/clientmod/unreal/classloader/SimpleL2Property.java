@@ -30,7 +30,10 @@ import javafx.collections.ObservableList;
 import java.util.ArrayList;
 import java.util.Arrays;
 
-public class SimpleL2Property implements L2Property{
+/**
+ * Observable property for UI, see {@link PropertyModel#observable()}.
+ */
+public class SimpleL2Property implements L2Property, Observable {
     private final Property template;
     private final ObservableList<Object> backingList;
 
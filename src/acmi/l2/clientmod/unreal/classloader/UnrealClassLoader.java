@@ -21,98 +21,323 @@
  */
 package acmi.l2.clientmod.unreal.classloader;
 
+import acmi.l2.clientmod.io.ByteBufferDataInput;
 import acmi.l2.clientmod.io.DataInput;
-import acmi.l2.clientmod.io.DataInputStream;
 import acmi.l2.clientmod.io.UnrealPackageReadOnly;
 import acmi.l2.clientmod.unreal.UnrealException;
 import acmi.l2.clientmod.unreal.core.Class;
 import acmi.l2.clientmod.unreal.core.*;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Predicate;
-
+import java.util.stream.IntStream;
+
+/**
+ * Thread-safe. Cached metadata is read without locking, each struct, property and template is loaded once,
+ * concurrent callers wait for it (see {@link BoundedCache}).
+ * <p>
+ * With a metadata cache file property lists of structs are stored between runs with data of the properties,
+ * so a warm start creates templates without reading struct, property and function exports.
+ * <p>
+ * Caches are bounded by {@link CacheLimits}, evicted entries are loaded again on demand. Export and name indices of packages are not bounded, they are
+ * released with their packages.
+ */
 public class UnrealClassLoader {
     public static final String UNREAL_CLASSES_PACKAGE = "acmi.l2.clientmod.unreal";
 
+    private static final String CACHE = System.getProperty(UnrealClassLoader.class.getName() + ".cache");
+
     private final PackageLoader packageLoader;
     private final PropertiesUtil propertiesUtil;
 
-    private Map<String, Struct> structCache = new HashMap<>();
-    private Map<String, Property> propertyCache = new HashMap<>();
-    private Map<String, List<Property>> structPropertiesCache = new HashMap<>();
-    private Map<Integer, Function> nativeFunctions = new HashMap<>();
+    private final BoundedCache<String, Struct> structCache;
+    private final BoundedCache<String, Property> propertyCache;
+    private final BoundedCache<String, List<Property>> structPropertiesCache;
+    private final BoundedCache<Integer, Function> nativeFunctions;
+    private final BoundedCache<String, Boolean> isSubclassCache;
+    private final BoundedCache<String, PropertyTemplate> propertyTemplateCache;
+    /**
+     * Native index -> function full name, to reload evicted functions.
+     */
+    private final Map<Integer, String> nativeFunctionNames = new ConcurrentHashMap<>();
+    private final Map<String, Constructor<? extends Field>> fieldConstructors = new ConcurrentHashMap<>();
+
+    private final ClassMetadataCache metadataCache;
+
+    /**
+     * Package -> lower case export full name -> export table indices.
+     */
+    private final PackageIndex<List<? extends UnrealPackageReadOnly.ExportEntry>, ExportIndex> exportIndexes =
+            new PackageIndex<>(ExportIndex::new, index -> index.indices.size());
+    /**
+     * Package -> lower case names of its name table, resolved on first use of an index and shared by all
+     * property templates.
+     */
+    private final PackageIndex<List<? extends UnrealPackageReadOnly.NameEntry>, NameIndex> nameIndexes =
+            new PackageIndex<>(NameIndex::new, index -> index.names.length());
+
+    private static final class ExportIndex {
+        private static final int[] EMPTY = new int[0];
+
+        final Map<String, int[]> indices;
+
+        ExportIndex(List<? extends UnrealPackageReadOnly.ExportEntry> exportTable) {
+            this.indices = new HashMap<>(exportTable.size() * 2);
+            for (int i = 0; i < exportTable.size(); i++) {
+                String name = exportTable.get(i).getObjectFullName().toLowerCase(Locale.ROOT);
+                int[] old = indices.getOrDefault(name, EMPTY);
+                int[] indices = Arrays.copyOf(old, old.length + 1);
+                indices[old.length] = i;
+                this.indices.put(name, indices);
+            }
+        }
+
+        int[] get(String name) {
+            return indices.getOrDefault(name.toLowerCase(Locale.ROOT), EMPTY);
+        }
+    }
 
+    private static final class NameIndex {
+        final AtomicReferenceArray<String> names;
+
+        NameIndex(List<? extends UnrealPackageReadOnly.NameEntry> nameTable) {
+            this.names = new AtomicReferenceArray<>(nameTable.size());
+        }
+
+        String get(List<? extends UnrealPackageReadOnly.NameEntry> nameTable, int index) {
+            String name = names.get(index);
+            if (name == null) {
+                name = nameTable.get(index).getName().toLowerCase(Locale.ROOT);
+                names.set(index, name);
+            }
+            return name;
+        }
+    }
+
+    /**
+     * Uses metadata cache file from system property {@code acmi.l2.clientmod.unreal.classloader.UnrealClassLoader.cache} if set.
+     */
     public UnrealClassLoader(PackageLoader packageLoader) {
+        this(packageLoader, CACHE != null ? new File(CACHE) : null);
+    }
+
+    /**
+     * @param cacheFile metadata cache file, it is written by {@link #saveCache()}; null for no cache
+     */
+    public UnrealClassLoader(PackageLoader packageLoader, File cacheFile) {
+        this(packageLoader, cacheFile, null);
+    }
+
+    /**
+     * @param cacheFile     metadata cache file, it is written by {@link #saveCache()}; null for no cache
+     * @param propertyModel model of read properties; null for the default one, see {@link PropertiesUtil}
+     */
+    public UnrealClassLoader(PackageLoader packageLoader, File cacheFile, PropertyModel propertyModel) {
+        this(packageLoader, cacheFile, propertyModel, CacheLimits.defaults());
+    }
+
+    /**
+     * @param cacheFile     metadata cache file, it is written by {@link #saveCache()}; null for no cache
+     * @param propertyModel model of read properties; null for the default one, see {@link PropertiesUtil}
+     * @param cacheLimits   maximum weights of caches
+     */
+    public UnrealClassLoader(PackageLoader packageLoader, File cacheFile, PropertyModel propertyModel, CacheLimits cacheLimits) {
         this.packageLoader = packageLoader;
-        this.propertiesUtil = new PropertiesUtil(this);
+        this.structCache = new BoundedCache<>(cacheLimits.getStruct());
+        this.propertyCache = new BoundedCache<>(cacheLimits.getProperty());
+        this.structPropertiesCache = new BoundedCache<>(cacheLimits.getStructProperties(), (k, v) -> v.size() + 1);
+        this.nativeFunctions = new BoundedCache<>(cacheLimits.getNativeFunction());
+        this.isSubclassCache = new BoundedCache<>(cacheLimits.getIsSubclass());
+        this.propertyTemplateCache = new BoundedCache<>(cacheLimits.getPropertyTemplate(), (k, v) -> v.size() + 1);
+        this.propertiesUtil = new PropertiesUtil(this, propertyModel);
+        this.metadataCache = cacheFile != null ? new ClassMetadataCache(cacheFile) : null;
+    }
+
+    /**
+     * Writes metadata of structs loaded so far to cache file, does nothing without cache.
+     */
+    public void saveCache() throws IOException {
+        if (metadataCache == null)
+            return;
+
+        metadataCache.save();
     }
 
     public PropertiesUtil getPropertiesUtil() {
         return propertiesUtil;
     }
 
+    /**
+     * @return cache name -> statistics
+     */
+    public Map<String, CacheStats> getCacheStats() {
+        Map<String, CacheStats> stats = new LinkedHashMap<>();
+        stats.put("struct", structCache.stats());
+        stats.put("property", propertyCache.stats());
+        stats.put("structProperties", structPropertiesCache.stats());
+        stats.put("nativeFunction", nativeFunctions.stats());
+        stats.put("isSubclass", isSubclassCache.stats());
+        stats.put("propertyTemplate", propertyTemplateCache.stats());
+        stats.put("exportIndex", exportIndexes.stats());
+        stats.put("nameIndex", nameIndexes.stats());
+        if (metadataCache != null)
+            stats.put("metadataPackage", metadataCache.stats());
+        return stats;
+    }
+
     public Optional<? extends UnrealPackageReadOnly.ExportEntry> getExportEntry(String name, Predicate<UnrealPackageReadOnly.ExportEntry> condition) throws UnrealException {
         if (name == null)
             return Optional.empty();
 
         String[] path = name.split("\\.", 2);
-        return packageLoader.apply(path[0])
-                .getExportTable()
-                .stream()
-                .filter(e -> e.getObjectFullName().equalsIgnoreCase(name))
+        UnrealPackageReadOnly up = packageLoader.apply(path[0]);
+        List<? extends UnrealPackageReadOnly.ExportEntry> exportTable = up.getExportTable();
+        return IntStream.of(exportIndexes.get(up, exportTable).get(name))
+                .<UnrealPackageReadOnly.ExportEntry>mapToObj(exportTable::get)
                 .filter(condition)
                 .findAny();
     }
 
+    /**
+     * @return lower case name at index of package name table
+     */
+    String getLowerCaseName(UnrealPackageReadOnly up, int nameIndex) {
+        List<? extends UnrealPackageReadOnly.NameEntry> nameTable = up.getNameTable();
+        return nameIndexes.get(up, nameTable).get(nameTable, nameIndex);
+    }
+
     public Struct getStruct(String struct) {
-        if (!structCache.containsKey(struct)) {
-            getStructProperties(struct);
-        }
+        Struct cached = structCache.getIfPresent(struct);
+        if (cached != null)
+            return cached;
+
+        return structCache.computeIfAbsent(struct, name -> {
+            List<UnrealPackageReadOnly.ExportEntry> tree = getClassTree(name);
+            if (tree.isEmpty())
+                return null;
 
-        return structCache.get(struct);
+            tree.forEach(entry -> loadStructProperties(entry.getObjectFullName()));
+            // put by readStructProperties unless properties were cached or it was evicted
+            Struct loaded = structCache.peek(name);
+            return loaded != null ? loaded : loadStruct(name);
+        });
+    }
+
+    private Struct loadStruct(String structName) {
+        Struct struct = (Struct) loadField(getExportEntry(structName, e -> true)
+                .orElseThrow(() -> new UnrealException(String.format("Struct %s not found.", structName))));
+        if (struct instanceof Class)
+            try {
+                ((Class) struct).readProperties();
+            } catch (IOException e) {
+                throw new UnrealException(e);
+            }
+        return struct;
     }
 
     private List<Property> loadStructProperties(String structName) {
-        if (!structPropertiesCache.containsKey(structName)) {
-            List<Property> fields = new ArrayList<>();
-            Struct struct = (Struct) loadField(getExportEntry(structName, e -> true)
-                    .orElseThrow(() -> new UnrealException(String.format("Struct %s not found.", structName))));
-            UnrealPackageReadOnly.Entry childEntry = struct.getChild();
-            while (childEntry != null) {
-                UnrealPackageReadOnly.ExportEntry pEntry = getExportEntry(childEntry.getObjectFullName(), e -> true)
-                        .orElseThrow(() -> new UnrealException(String.format("Child entry %s not found.", structName)));
-
-                Field field = loadField(pEntry);
-
-                if (field instanceof Function) {
-                    nativeFunctions.putIfAbsent(((Function) field).nativeIndex, (Function) field);
-                }
+        List<Property> cached = structPropertiesCache.getIfPresent(structName);
+        if (cached != null)
+            return cached;
 
-                if (field instanceof Property) {
-                    Property p = (Property) field;
-                    propertyCache.putIfAbsent(pEntry.getObjectFullName(), p);
-                    fields.add(p);
-                }
+        return structPropertiesCache.computeIfAbsent(structName, this::readStructProperties);
+    }
+
+    private List<Property> readStructProperties(String structName) {
+        UnrealPackageReadOnly.ExportEntry structEntry = getExportEntry(structName, e -> true)
+                .orElseThrow(() -> new UnrealException(String.format("Struct %s not found.", structName)));
 
-                childEntry = field.getNext();
+        ClassMetadataCache.StructInfo info = metadataCache != null ? metadataCache.get(structEntry) : null;
+        if (info != null) {
+            List<Property> fields = new ArrayList<>(info.properties.size());
+            for (ClassMetadataCache.PropertyInfo propertyInfo : info.properties) {
+                fields.add(propertyCache.computeIfAbsent(propertyInfo.name, name -> loadProperty(structEntry.getUnrealPackage(), propertyInfo)));
             }
-            structPropertiesCache.put(structName, fields);
+            info.nativeFunctions.forEach(nativeFunctionNames::putIfAbsent);
+            return fields;
+        }
 
-            if (!structCache.containsKey(structName)) {
-                if (struct instanceof Class)
-                    try {
-                        ((Class) struct).readProperties();
-                    } catch (IOException e) {
-                        throw new UnrealException(e);
-                    }
-                structCache.put(structName, struct);
+        List<Property> fields = new ArrayList<>();
+        List<ClassMetadataCache.PropertyInfo> propertyInfos = new ArrayList<>();
+        Map<Integer, String> functionNames = new HashMap<>();
+        Struct struct = (Struct) loadField(structEntry);
+        UnrealPackageReadOnly.Entry childEntry = struct.getChild();
+        while (childEntry != null) {
+            UnrealPackageReadOnly.ExportEntry pEntry = getExportEntry(childEntry.getObjectFullName(), e -> true)
+                    .orElseThrow(() -> new UnrealException(String.format("Child entry %s not found.", structName)));
+
+            Field field = loadField(pEntry);
+
+            if (field instanceof Function) {
+                nativeFunctions.putIfAbsent(((Function) field).nativeIndex, (Function) field);
+                nativeFunctionNames.putIfAbsent(((Function) field).nativeIndex, pEntry.getObjectFullName());
+                functionNames.putIfAbsent(((Function) field).nativeIndex, pEntry.getObjectFullName());
             }
+
+            if (field instanceof Property) {
+                Property p = (Property) field;
+                propertyCache.putIfAbsent(pEntry.getObjectFullName(), p);
+                fields.add(p);
+                if (metadataCache != null)
+                    propertyInfos.add(propertyInfo(structEntry, pEntry, p));
+            }
+
+            childEntry = field.getNext();
+        }
+        if (metadataCache != null)
+            metadataCache.put(structEntry, new ClassMetadataCache.StructInfo(propertyInfos, functionNames));
+
+        if (!structCache.containsKey(structName)) {
+            // class default properties need the template being loaded
+            structPropertiesCache.put(structName, fields);
+            if (struct instanceof Class)
+                try {
+                    ((Class) struct).readProperties();
+                } catch (IOException e) {
+                    throw new UnrealException(e);
+                }
+            structCache.put(structName, struct);
         }
+        return fields;
+    }
 
-        return structPropertiesCache.get(structName);
+    private Property loadProperty(UnrealPackageReadOnly up, ClassMetadataCache.PropertyInfo info) {
+        UnrealPackageReadOnly.Entry entry = info.reference != 0 ? up.objectReference(info.reference) : null;
+        if (entry instanceof UnrealPackageReadOnly.ExportEntry && entry.getObjectFullName().equals(info.name))
+            return (Property) loadField((UnrealPackageReadOnly.ExportEntry) entry,
+                    new ByteBufferDataInput(ByteBuffer.wrap(info.data), up.getCharset()), null);
+
+        return (Property) loadField(getExportEntry(info.name, e -> true)
+                .orElseThrow(() -> new UnrealException(String.format("Property %s not found.", info.name))));
+    }
+
+    /**
+     * Field data of the property follows its properties, only a property without state frame and properties
+     * in the package of the struct is stored with data.
+     */
+    private static ClassMetadataCache.PropertyInfo propertyInfo(UnrealPackageReadOnly.ExportEntry structEntry, UnrealPackageReadOnly.ExportEntry entry, Property property) {
+        String name = entry.getObjectFullName();
+        if (entry.getUnrealPackage() != structEntry.getUnrealPackage() ||
+                property.getStateFrame() != null ||
+                !property.getProperties().isEmpty())
+            return new ClassMetadataCache.PropertyInfo(name);
+
+        try {
+            ByteBufferDataInput input = new ByteBufferDataInput(entry.getObjectRawDataBuffer(), null);
+            input.readCompactInt(); // None
+            byte[] data = new byte[input.available()];
+            input.readFully(data);
+            return new ClassMetadataCache.PropertyInfo(name, entry.getObjectReference(), data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     public List<Property> getStructProperties(String structName) {
@@ -125,12 +350,24 @@ public class UnrealClassLoader {
                 });
     }
 
+    /**
+     * Merged properties of the class tree, compiled once per class.
+     */
+    PropertyTemplate getPropertyTemplate(String structName) {
+        PropertyTemplate cached = propertyTemplateCache.getIfPresent(structName);
+        if (cached != null)
+            return cached;
+
+        return propertyTemplateCache.computeIfAbsent(structName, name -> new PropertyTemplate(getStructProperties(name)));
+    }
+
     public Property getProperty(String property) {
-        if (!propertyCache.containsKey(property)) {
-            propertyCache.put(property, (Property) loadField(getExportEntry(property, e -> true)
-                    .orElseThrow(() -> new UnrealException(String.format("Property %s not found.", property)))));
-        }
-        return propertyCache.get(property);
+        Property cached = propertyCache.getIfPresent(property);
+        if (cached != null)
+            return cached;
+
+        return propertyCache.computeIfAbsent(property, name -> (Property) loadField(getExportEntry(name, e -> true)
+                .orElseThrow(() -> new UnrealException(String.format("Property %s not found.", name)))));
     }
 
     public String getSuperClass(String clazz) {
@@ -152,19 +389,19 @@ public class UnrealClassLoader {
         }
     }
 
-    private Map<String, Boolean> isSubclassCache = new HashMap<>();
-
     public boolean isSubclass(String parent, String child) {
         if (parent.equalsIgnoreCase(child))
             return true;
 
         String k = parent+"@"+child;
-        if (!isSubclassCache.containsKey(k)){
+        Boolean cached = isSubclassCache.getIfPresent(k);
+        if (cached == null){
             child = getSuperClass(child);
 
-            isSubclassCache.put(k, child != null && isSubclass(parent, child));
+            cached = child != null && isSubclass(parent, child);
+            isSubclassCache.put(k, cached);
         }
-        return isSubclassCache.get(k);
+        return cached;
     }
 
     public List<UnrealPackageReadOnly.ExportEntry> getClassTree(String name) {
@@ -195,23 +432,40 @@ public class UnrealClassLoader {
 
     public Field loadField(UnrealPackageReadOnly.ExportEntry entry) {
         try {
-            DataInput buffer = new DataInputStream(new ByteArrayInputStream(entry.getObjectRawDataExternally()), entry.getUnrealPackage().getCharset());
-
-            String fieldClassName = Field.class.getPackage().getName() + "." +
-                    (entry.getObjectClass() == null ? "Class" : entry.getObjectClass().getObjectName().getName());
-            java.lang.Class<? extends Field> fieldClass = java.lang.Class.forName(fieldClassName).asSubclass(Field.class);
-
-            return fieldClass.getConstructor(DataInput.class, UnrealPackageReadOnly.ExportEntry.class, PropertiesUtil.class)
-                    .newInstance(buffer, entry, getPropertiesUtil());
+            DataInput buffer = new ByteBufferDataInput(entry.getObjectRawDataBuffer(), entry.getUnrealPackage().getCharset());
+            return loadField(entry, buffer, getPropertiesUtil());
         } catch (IOException e) {
             throw new UncheckedIOException(e);
+        }
+    }
+
+    private Field loadField(UnrealPackageReadOnly.ExportEntry entry, DataInput input, PropertiesUtil propertiesUtil) {
+        String fieldClassName = Field.class.getPackage().getName() + "." +
+                (entry.getObjectClass() == null ? "Class" : entry.getObjectClass().getObjectName().getName());
+        try {
+            Constructor<? extends Field> constructor = fieldConstructors.get(fieldClassName);
+            if (constructor == null) {
+                constructor = java.lang.Class.forName(fieldClassName).asSubclass(Field.class)
+                        .getConstructor(DataInput.class, UnrealPackageReadOnly.ExportEntry.class, PropertiesUtil.class);
+                fieldConstructors.putIfAbsent(fieldClassName, constructor);
+            }
+            return constructor.newInstance(input, entry, propertiesUtil);
         } catch (ReflectiveOperationException e) {
             throw new UnrealException(e);
         }
     }
 
     public Function getNativeFunction(int index) {
-        return nativeFunctions.get(index);
+        Function cached = nativeFunctions.getIfPresent(index);
+        if (cached != null)
+            return cached;
+
+        String name = nativeFunctionNames.get(index);
+        if (name == null)
+            return null;
+
+        return nativeFunctions.computeIfAbsent(index, i -> (Function) loadField(getExportEntry(name, e -> true)
+                .orElseThrow(() -> new UnrealException(String.format("Function %s not found.", name)))));
     }
 
     public static String unrealClassNameToJavaClassName(String className) {
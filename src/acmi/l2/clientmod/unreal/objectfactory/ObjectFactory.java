@@ -21,21 +21,27 @@
  */
 package acmi.l2.clientmod.unreal.objectfactory;
 
+import acmi.l2.clientmod.io.ByteBufferDataInput;
 import acmi.l2.clientmod.io.DataInput;
-import acmi.l2.clientmod.io.DataInputStream;
 import acmi.l2.clientmod.io.UnrealPackageReadOnly;
 import acmi.l2.clientmod.unreal.UnrealException;
 import acmi.l2.clientmod.unreal.classloader.PropertiesUtil;
 import acmi.l2.clientmod.unreal.classloader.UnrealClassLoader;
 import acmi.l2.clientmod.unreal.core.Object;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 public class ObjectFactory implements Function<UnrealPackageReadOnly.ExportEntry, Object> {
     private static final Logger log = Logger.getLogger(ObjectFactory.class.getName());
@@ -59,11 +65,10 @@ public class ObjectFactory implements Function<UnrealPackageReadOnly.ExportEntry
 
         try {
             Constructor<? extends Object> constructor = clazz.getConstructor(DataInput.class, UnrealPackageReadOnly.ExportEntry.class, PropertiesUtil.class);
-            ByteArrayInputStream bais = new ByteArrayInputStream(entry.getObjectRawDataExternally());
-            DataInputStream dis = new DataInputStream(bais, entry.getOffset(), entry.getUnrealPackage().getCharset());
-            Object object = constructor.newInstance(dis, entry, classLoader.getPropertiesUtil());
-            if (dis.available() > 0)
-                log.warning(() -> String.format("%d bytes of %s not read", bais.available(), object));
+            ByteBufferDataInput input = new ByteBufferDataInput(entry.getObjectRawDataBuffer(), entry.getOffset(), entry.getUnrealPackage().getCharset());
+            Object object = constructor.newInstance(input, entry, classLoader.getPropertiesUtil());
+            if (input.available() > 0)
+                log.warning(() -> String.format("%d bytes of %s not read", input.available(), object));
             return object;
         } catch (IOException e) {
             throw new UncheckedIOException(e);
@@ -74,6 +79,43 @@ public class ObjectFactory implements Function<UnrealPackageReadOnly.ExportEntry
         }
     }
 
+    /**
+     * Deserializes matching exports of the package in parallel using {@link ForkJoinPool#commonPool()}.
+     *
+     * @return objects in export table order
+     * @see #applyAll(UnrealPackageReadOnly, Predicate, ForkJoinPool)
+     */
+    public List<Object> applyAll(UnrealPackageReadOnly up, Predicate<UnrealPackageReadOnly.ExportEntry> filter) throws UnrealException {
+        return applyAll(up, filter, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Deserializes matching exports of the package in parallel.
+     * Package must not be modified until this method returns.
+     * First failure cancels not started entries and is rethrown.
+     *
+     * @return objects in export table order
+     */
+    public List<Object> applyAll(UnrealPackageReadOnly up, Predicate<UnrealPackageReadOnly.ExportEntry> filter, ForkJoinPool pool) throws UnrealException {
+        List<ForkJoinTask<Object>> tasks = up.getExportTable()
+                .stream()
+                .filter(filter)
+                .map(entry -> pool.submit(() -> apply(entry)))
+                .collect(Collectors.toList());
+
+        List<Object> objects = new ArrayList<>(tasks.size());
+        try {
+            for (ForkJoinTask<Object> task : tasks)
+                objects.add(task.join());
+        } catch (RuntimeException e) {
+            tasks.forEach(task -> task.cancel(false));
+            if (e instanceof CancellationException)
+                throw new UnrealException("Deserialization cancelled", e);
+            throw e;
+        }
+        return objects;
+    }
+
     private java.lang.Class<? extends Object> getClass(String className) {
         if (className.equals("Core.Object"))
             return AsIsObject.class;